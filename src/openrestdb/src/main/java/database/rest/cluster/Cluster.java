@@ -43,10 +43,17 @@ import static java.nio.file.StandardOpenOption.*;
 
 public class Cluster
 {
+  private final short http;
+  private final short minsrv;
+  private final short maxsrv;
   private final String inst;
   private final Config config;
   private final MappedByteBuffer shmmem;
 
+  // Stop checksum & time, followed by the wanted number of RESTServers
+  private final static int TARGET = 2 + Long.BYTES;
+  private final static int HEADER = TARGET + Short.BYTES;
+
   private static Cluster cluster = null;
   private final static Logger logger = Logger.getLogger("internal");
 
@@ -61,7 +68,11 @@ public class Cluster
 
     Short[] servers = getServers(config);
     int processes = servers[0] + servers[1];
-    int size = 2 + Long.BYTES + processes * (Statistics.reclen + 2);
+    int size = HEADER + processes * (Statistics.reclen + 2);
+
+    this.http = servers[0];
+    this.maxsrv = servers[1];
+    this.minsrv = config.getTopology().minservers;
 
     Path path = fs.getPath(filename);
     FileChannel fc = FileChannel.open(path,CREATE,READ,WRITE);
@@ -99,13 +110,31 @@ public class Cluster
   }
 
 
+  private short getTarget()
+  {
+    short target = shmmem.getShort(TARGET);
+
+    // Not set yet, or the configuration has changed
+    if (target < minsrv) target = minsrv;
+    if (target > maxsrv) target = maxsrv;
+
+    return(target);
+  }
+
+
+  private void setTarget(short target)
+  {
+    shmmem.putShort(TARGET,target);
+  }
+
+
   private byte[] readdata(short id)
   {
     byte cs1 = 0;
     byte cs2 = 1;
 
     byte[] data = new byte[Statistics.reclen];
-    int offset = 2 + Long.BYTES + id * (Statistics.reclen + 2);
+    int offset = HEADER + id * (Statistics.reclen + 2);
 
     for (int i = 0; cs1 != cs2 && i < 32768; i++)
     {
@@ -123,7 +152,7 @@ public class Cluster
 
   private void writedata(short id, byte[] data)
   {
-    int offset = 2 + Long.BYTES + id * (Statistics.reclen + 2);
+    int offset = HEADER + id * (Statistics.reclen + 2);
     byte par = (byte) (this.shmmem.get(offset) + 1);
     this.shmmem.put(offset,par);
     this.shmmem.put(offset+1,data);
@@ -155,6 +184,30 @@ public class Cluster
   }
 
 
+  /**
+   * The number of RESTServers that should be running
+   */
+  public static short target()
+  {
+    return(cluster.getTarget());
+  }
+
+
+  public static void target(short target)
+  {
+    cluster.setTarget(target);
+  }
+
+
+  /**
+   * Whether the id is a RESTServer beyond the current target
+   */
+  public static boolean surplus(short id)
+  {
+    return(id >= cluster.http + cluster.getTarget());
+  }
+
+
   public static void init(Server server) throws Exception
   {
     init(server.config());
@@ -284,7 +337,7 @@ public class Cluster
         down.add(new ServerType(Process.Type.http,i));
     }
 
-    for (short i = servers[0]; i < servers[0] + servers[1]; i++)
+    for (short i = servers[0]; i < servers[0] + target(); i++)
     {
       if (i == server.id()) continue;
 
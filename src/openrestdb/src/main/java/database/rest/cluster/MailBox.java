@@ -24,41 +24,67 @@ package database.rest.cluster;
 import java.io.File;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.HashMap;
+import java.nio.ByteOrder;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Files;
 import java.util.logging.Logger;
 import java.nio.file.FileSystem;
 import java.nio.MappedByteBuffer;
 import java.nio.file.FileSystems;
+import java.lang.invoke.VarHandle;
 import database.rest.config.Paths;
 import database.rest.config.Config;
 import java.nio.channels.FileChannel;
+import java.lang.invoke.MethodHandles;
 import static java.nio.file.StandardOpenOption.*;
 import java.nio.file.attribute.PosixFilePermission;
 
 
+/**
+ *
+ * Payloads between the HTTPServer and a RESTServer are passed through
+ * a memory mapped file, divided into extends. The extends in use are
+ * tracked in a bitmap at the start of the file, allocated and released
+ * using CAS, so both processes see the same state and no locks are needed.
+ * Payloads larger than one extend are chained, using a table of links
+ * following the bitmap, so the socket only carries the first extend.
+ * Data is moved using absolute positions, on private views of the buffer.
+ *
+ */
 public class MailBox
 {
+  private final int words;
   private final int extnds;
   private final int extsize;
+  private final long links;
+  private final long header;
   private final MappedByteBuffer shmmem;
-  private final HashMap<Integer,Long> extmap;
 
-  private final Object RLOCK = new Object();
-  private final Object WLOCK = new Object();
   private final Logger logger = Logger.getLogger("internal");
 
+  private final static int END = -1;
+
+  private static final VarHandle BITMAP =
+    MethodHandles.byteBufferViewVarHandle(long[].class,ByteOrder.nativeOrder());
+
+  private static final VarHandle LINK =
+    MethodHandles.byteBufferViewVarHandle(int[].class,ByteOrder.nativeOrder());
+
 
   public MailBox(Config config, short id) throws Exception
   {
     String filename = getFileName(id);
     FileSystem fs = FileSystems.getDefault();
 
-    this.extmap = new HashMap<Integer,Long>();
     this.extnds = config.getTopology().extnds;
     this.extsize = config.getTopology().extsize;
 
+    // One bit and one link per extend, padded to whole cache lines
+    this.words = (extnds + 63) / 64;
+    this.links = words * 8L;
+    this.header = ((links + extnds * 4L + 63) / 64) * 64;
+
     Path path = fs.getPath(filename);
     FileChannel fc = FileChannel.open(path,CREATE,READ,WRITE);
 
@@ -77,25 +103,51 @@ public class MailBox
       }
     }
 
-    this.shmmem = fc.map(FileChannel.MapMode.READ_WRITE,0,extnds*extsize);
+    this.shmmem = fc.map(FileChannel.MapMode.READ_WRITE,0,header+(long) extnds*extsize);
   }
 
 
-  public boolean fits(byte[] data)
+  public void reset()
   {
-    return(data.length <= extsize);
+    for (int i = 0; i < words; i++)
+      BITMAP.setVolatile(shmmem,i*8,0L);
   }
 
 
+  public int used()
+  {
+    int used = 0;
+
+    for (int i = 0; i < words; i++)
+      used += Long.bitCount((long) BITMAP.getVolatile(shmmem,i*8));
+
+    return(used);
+  }
+
+
+  /**
+   * Writes the data into the chain starting at extend,
+   * appending extends if the chain is too short.
+   */
   public boolean write(int extend, byte[] data)
   {
-    if (data.length > extsize)
+    if (!grow(extend,data.length))
       return(false);
 
-    synchronized(WLOCK)
+    int pos = 0;
+    ByteBuffer view = shmmem.duplicate();
+
+    while(true)
     {
-      shmmem.position(extend*extsize);
-      shmmem.put(data);
+      int len = Math.min(extsize,data.length - pos);
+
+      view.position(offset(extend));
+      view.put(data,pos,len);
+
+      pos += len;
+      if (pos == data.length) break;
+
+      extend = next(extend);
     }
 
     return(true);
@@ -104,48 +156,160 @@ public class MailBox
 
   public int write(long id, byte[] data)
   {
-    if (data.length > extsize)
+    int extend = alloc(id);
+
+    if (extend < 0)
+    {
+      logger.warning("No available extends in mailbox");
       return(-1);
+    }
 
-    int start = (int) (id % extnds);
+    link(extend,END);
 
-    synchronized(WLOCK)
+    if (!write(extend,data))
     {
-      for (int i = 0; i < extnds; i++)
-      {
-        int extend = (start + i) % extnds;
-        if (extmap.get(extend) == null)
-        {
-          shmmem.position(extend*extsize);
-          shmmem.put(data);
-          return(extend);
-        }
-      }
+      clear(extend);
+      return(-1);
     }
 
-    logger.warning("No available extends in mailbox");
-    return(-1);
+    return(extend);
   }
 
 
   public byte[] read(int extend, int size)
   {
+    int pos = 0;
     byte[] data = new byte[size];
+    ByteBuffer view = shmmem.duplicate();
 
-    synchronized(RLOCK)
+    while(true)
     {
-      extmap.remove(extend);
-      shmmem.position(extend*extsize);
-      shmmem.get(data);
+      int len = Math.min(extsize,size - pos);
+
+      view.position(offset(extend));
+      view.get(data,pos,len);
+
+      pos += len;
+      if (pos == size) break;
+
+      extend = next(extend);
     }
 
     return(data);
   }
 
 
+  /**
+   * Releases all extends in the chain.
+   */
   public void clear(int extend)
   {
-    extmap.remove(extend);
+    while(extend != END)
+    {
+      // Read the link before the extend can be reused
+      int next = next(extend);
+      release(extend);
+      extend = next;
+    }
+  }
+
+
+  private boolean grow(int extend, int size)
+  {
+    int need = size <= extsize ? 1 : (size + extsize - 1) / extsize;
+
+    for (int i = 1; i < need; i++)
+    {
+      int next = next(extend);
+
+      if (next == END)
+      {
+        // Stay close to the previous extend
+        next = alloc(extend / 64);
+
+        if (next < 0)
+        {
+          logger.warning("No available extends in mailbox for "+size+" bytes");
+          return(false);
+        }
+
+        link(next,END);
+        link(extend,next);
+      }
+
+      extend = next;
+    }
+
+    return(true);
+  }
+
+
+  private void release(int extend)
+  {
+    int word = extend / 64;
+    long bit = 1L << (extend % 64);
+
+    while(true)
+    {
+      long bits = (long) BITMAP.getVolatile(shmmem,word*8);
+      if ((bits & bit) == 0) return;
+
+      if (BITMAP.compareAndSet(shmmem,word*8,bits,bits & ~bit))
+        return;
+    }
+  }
+
+
+  private int next(int extend)
+  {
+    return((int) LINK.getAcquire(shmmem,(int) (links + extend * 4L)));
+  }
+
+
+  private void link(int extend, int next)
+  {
+    LINK.setRelease(shmmem,(int) (links + extend * 4L),next);
+  }
+
+
+  private int alloc(long id)
+  {
+    // Spread concurrent writers over the bitmap
+    int start = (int) Math.floorMod(id,(long) words);
+
+    for (int i = 0; i < words; i++)
+    {
+      int word = (start + i) % words;
+
+      while(true)
+      {
+        long bits = (long) BITMAP.getVolatile(shmmem,word*8);
+        long free = ~bits & mask(word);
+
+        if (free == 0) break;
+
+        long bit = Long.lowestOneBit(free);
+
+        if (BITMAP.compareAndSet(shmmem,word*8,bits,bits | bit))
+          return(word * 64 + Long.numberOfTrailingZeros(bit));
+      }
+    }
+
+    return(-1);
+  }
+
+
+  private long mask(int word)
+  {
+    int bits = extnds - word * 64;
+    if (bits >= 64) return(-1L);
+    return((1L << bits) - 1);
+  }
+
+
+  private int offset(int extend)
+  {
+    return((int) (header + (long) extend * extsize));
   }
 
 
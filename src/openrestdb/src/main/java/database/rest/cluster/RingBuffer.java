@@ -0,0 +1,338 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.cluster;
+
+import java.io.File;
+import java.util.Set;
+import java.util.HashSet;
+import java.nio.ByteOrder;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.lang.invoke.VarHandle;
+import database.rest.config.Paths;
+import database.rest.config.Config;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.locks.LockSupport;
+import static java.nio.file.StandardOpenOption.*;
+import java.nio.file.attribute.PosixFilePermission;
+
+
+/**
+ *
+ * Single producer, single consumer byte ring in a memory mapped file, one for
+ * each direction between the HTTPServer and a RESTServer. The producer publishes
+ * its write sequence with release semantics, the consumer its read sequence,
+ * each on its own cache line. A waiting side spins briefly, yields, then parks,
+ * first briefly and later for doubling intervals up to ipc "ringidle" (1 ms),
+ * while checking that the peer process is still alive. The first frame after a
+ * lull can therefore be late by up to ringidle, a lower value trades idle cpu
+ * for latency. A peer that has not attached within the handshake timeout is
+ * considered gone.
+ * Frames are streamed, so payloads larger than the ring simply wrap.
+ *
+ */
+public class RingBuffer
+{
+  private final long mask;
+  private final int capacity;
+  private final long maxpark;
+  private final MappedByteBuffer shmmem;
+
+  private volatile boolean closed = false;
+
+  private final static int HEAD = 0;
+  private final static int TAIL = 64;
+  private final static int PRODUCER = 128;
+  private final static int CONSUMER = 192;
+  private final static int HEADER = 256;
+
+  private final static int YIELD = 100;
+  private final static int PARKS = 1000;
+  private final static int SPIN = Runtime.getRuntime().availableProcessors() > 1 ? 10000 : 0;
+  private final static long MINPARK = 20000;
+  private final static long CHECKPEER = 100000000;
+  private final static long HANDSHAKE = 10000000000L;
+
+  private static final VarHandle LONG =
+    MethodHandles.byteBufferViewVarHandle(long[].class,ByteOrder.nativeOrder());
+
+
+  public RingBuffer(Config config, short id, boolean requests) throws Exception
+  {
+    int size = Integer.highestOneBit(config.getTopology().ringsize);
+    String filename = getFileName(id,requests);
+
+    Path path = java.nio.file.Paths.get(filename);
+    FileChannel fc = FileChannel.open(path,CREATE,READ,WRITE);
+
+    if (!System.getProperty("os.name").startsWith("Windows"))
+    {
+      Set<PosixFilePermission> perms = new HashSet<>();
+      perms.add(PosixFilePermission.OWNER_READ);
+      perms.add(PosixFilePermission.OWNER_WRITE);
+      Files.setPosixFilePermissions(path,perms);
+    }
+
+    this.capacity = size;
+    this.mask = size - 1;
+    this.maxpark = Math.max(MINPARK,config.getTopology().ringidle * 1000L);
+    this.shmmem = fc.map(FileChannel.MapMode.READ_WRITE,0,HEADER+size);
+
+    fc.close();
+  }
+
+
+  public void reset()
+  {
+    LONG.setVolatile(shmmem,HEAD,0L);
+    LONG.setVolatile(shmmem,TAIL,0L);
+    LONG.setVolatile(shmmem,PRODUCER,0L);
+    LONG.setVolatile(shmmem,CONSUMER,0L);
+  }
+
+
+  public boolean closed()
+  {
+    return(closed);
+  }
+
+
+  public void close()
+  {
+    closed = true;
+  }
+
+
+  public InputStream reader()
+  {
+    LONG.setVolatile(shmmem,CONSUMER,ProcessHandle.current().pid());
+    return(new Reader());
+  }
+
+
+  public GatheringByteChannel writer()
+  {
+    LONG.setVolatile(shmmem,PRODUCER,ProcessHandle.current().pid());
+    return(new Writer());
+  }
+
+
+  private static String getFileName(short id, boolean requests)
+  {
+    String hex = Integer.toHexString(id);
+    hex = String.format("%4s",hex).replace(' ','0');
+    return(Paths.ipcdir + File.separator + "ipc" + hex + (requests ? ".req" : ".rsp"));
+  }
+
+
+  private class Waiter
+  {
+    private int idle = 0;
+    private long checked = 0;
+    private long park = MINPARK;
+    private final int slot;
+    private final long attached = System.nanoTime();
+
+    Waiter(int slot)
+    {
+      this.slot = slot;
+    }
+
+    void reset()
+    {
+      idle = 0;
+      park = MINPARK;
+    }
+
+    void pause() throws IOException
+    {
+      if (closed)
+        throw new IOException("Ring buffer closed");
+
+      // Spinning is pointless without another core to run the peer
+      if (idle++ < SPIN)
+      {
+        Thread.onSpinWait();
+        return;
+      }
+
+      if (idle < SPIN + YIELD)
+      {
+        Thread.yield();
+        return;
+      }
+
+      // Stay responsive for a while, then back off to save cpu when idle
+      if (idle < SPIN + YIELD + PARKS)
+      {
+        LockSupport.parkNanos(MINPARK);
+      }
+      else
+      {
+        LockSupport.parkNanos(park);
+        park = Math.min(park * 2,maxpark);
+      }
+
+      long now = System.nanoTime();
+
+      if (now - checked > CHECKPEER)
+      {
+        checked = now;
+        long pid = (long) LONG.getVolatile(shmmem,slot);
+
+        // The peer died before it got to attach
+        if (pid == 0 && now - attached > HANDSHAKE)
+          throw new IOException("Peer process did not attach within "+(HANDSHAKE/1000000000)+" secs");
+
+        if (pid != 0 && !ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false))
+          throw new IOException("Peer process "+pid+" is gone");
+      }
+    }
+  }
+
+
+  private class Reader extends InputStream
+  {
+    private long tail = (long) LONG.getVolatile(shmmem,TAIL);
+
+    private final ByteBuffer view = shmmem.duplicate();
+    private final Waiter waiter = new Waiter(PRODUCER);
+
+    @Override
+    public int read() throws IOException
+    {
+      byte[] b = new byte[1];
+      if (read(b,0,1) < 0) return(-1);
+      return(b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      if (len == 0) return(0);
+
+      long head = (long) LONG.getAcquire(shmmem,HEAD);
+
+      while(head == tail)
+      {
+        waiter.pause();
+        head = (long) LONG.getAcquire(shmmem,HEAD);
+      }
+
+      waiter.reset();
+
+      int pos = (int) (tail & mask);
+      int avail = (int) Math.min(head - tail,capacity - pos);
+      int size = Math.min(len,avail);
+
+      view.position(HEADER + pos);
+      view.get(b,off,size);
+
+      tail += size;
+      LONG.setRelease(shmmem,TAIL,tail);
+
+      return(size);
+    }
+  }
+
+
+  private class Writer implements GatheringByteChannel
+  {
+    private long head = (long) LONG.getVolatile(shmmem,HEAD);
+
+    private final ByteBuffer view = shmmem.duplicate();
+    private final Waiter waiter = new Waiter(CONSUMER);
+
+    @Override
+    public boolean isOpen()
+    {
+      return(!closed);
+    }
+
+    @Override
+    public void close()
+    {
+      closed = true;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+      int written = src.remaining();
+
+      while(src.hasRemaining())
+      {
+        long tail = (long) LONG.getAcquire(shmmem,TAIL);
+
+        while(head - tail == capacity)
+        {
+          waiter.pause();
+          tail = (long) LONG.getAcquire(shmmem,TAIL);
+        }
+
+        waiter.reset();
+
+        int pos = (int) (head & mask);
+        int free = (int) Math.min(capacity - (head - tail),capacity - pos);
+        int size = Math.min(src.remaining(),free);
+
+        // Copy straight from the callers buffer into the mapped ring
+        int limit = src.limit();
+        src.limit(src.position() + size);
+
+        view.position(HEADER + pos);
+        view.put(src);
+
+        src.limit(limit);
+
+        head += size;
+        LONG.setRelease(shmmem,HEAD,head);
+      }
+
+      return(written);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException
+    {
+      return(write(srcs,0,srcs.length));
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+      long written = 0;
+
+      for (int i = offset; i < offset + length; i++)
+        written += write(srcs[i]);
+
+      return(written);
+    }
+  }
+}
\ No newline at end of file
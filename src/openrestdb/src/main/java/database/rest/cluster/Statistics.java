@@ -24,6 +24,8 @@ package database.rest.cluster;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.logging.Level;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import database.rest.config.Config;
 import database.rest.servers.Server;
 
@@ -48,7 +50,12 @@ public class Statistics
 
   private long requests;
 
-  public static final int reclen = 7*Long.BYTES+3;
+  private int queued;
+  private int running;
+  private int latency;
+  private int cpuload;
+
+  public static final int reclen = 7*Long.BYTES+4*Integer.BYTES+3;
 
 
   @SuppressWarnings("cast")
@@ -69,6 +76,11 @@ public class Statistics
       stats.freemem = Runtime.getRuntime().freeMemory();
       stats.usedmem = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
 
+      stats.cpuload = cpu();
+      stats.queued = server.queued();
+      stats.running = server.running();
+      stats.latency = server.latency();
+
       byte httpmgr = server.http() ? (byte) 1 : 0;
       byte restmgr = server.manager() ? (byte) 1 : 0;
       byte srvtype = server.isHttpType() ? (byte) 1 : 0;
@@ -81,6 +93,11 @@ public class Statistics
       data.putLong(stats.freemem);
       data.putLong(stats.requests);
 
+      data.putInt(stats.queued);
+      data.putInt(stats.running);
+      data.putInt(stats.latency);
+      data.putInt(stats.cpuload);
+
       data.put(srvtype);
       data.put(httpmgr);
       data.put(restmgr);
@@ -122,6 +139,11 @@ public class Statistics
           stats.freemem  = data.getLong();
           stats.requests = data.getLong();
 
+          stats.queued   = data.getInt();
+          stats.running  = data.getInt();
+          stats.latency  = data.getInt();
+          stats.cpuload  = data.getInt();
+
           byte srvtype = data.get();
           byte httpmgr = data.get();
           byte restmgr = data.get();
@@ -141,6 +163,20 @@ public class Statistics
     return(list);
   }
 
+  /**
+   * Cpu used by this process, in permille of the machine
+   */
+  private static int cpu()
+  {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    if (!(os instanceof com.sun.management.OperatingSystemMXBean))
+      return(0);
+
+    double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+    return(load < 0 ? 0 : (int) (load * 1000));
+  }
+
   public short id()
   {
     return(id);
@@ -181,6 +217,26 @@ public class Statistics
     return(requests);
   }
 
+  public int queued()
+  {
+    return(queued);
+  }
+
+  public int running()
+  {
+    return(running);
+  }
+
+  public int latency()
+  {
+    return(latency);
+  }
+
+  public int cpuload()
+  {
+    return(cpuload);
+  }
+
   public boolean online()
   {
     return(online);
@@ -21,9 +21,16 @@
 
 package database.rest.config;
 
+import java.util.HashMap;
 import java.util.ArrayList;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import database.rest.database.Pool;
+import database.rest.database.PoolScaler;
+import database.rest.database.CircuitBreaker;
+import database.rest.database.Replicas;
+import database.rest.database.ResultCache;
+import database.rest.database.SingleFlight;
 import java.lang.reflect.Constructor;
 
 import database.rest.custom.SQLRewriter;
@@ -53,10 +60,16 @@ public class Database
   public final Pool proxy;
   public final Pool fixed;
 
+  public final Replicas replicas;
+  public final ResultCache cache;
+  public final SingleFlight flight;
+
+  public final int timeout;
   public final boolean nowait;
   public final DatabaseType type;
   public final ArrayList<String> urlparts;
 
+  private final HashMap<String,Integer> timeouts;
   private final NameValuePair<Boolean>[] savepoints;
 
 
@@ -77,6 +90,18 @@ public class Database
     this.url = Config.get(section,"jdbc");
     this.test = Config.get(section,"test");
 
+    // Query timeouts in seconds, per user or default
+    this.timeout = Config.get(section,"timeout",0);
+    this.timeouts = new HashMap<String,Integer>();
+
+    if (Config.has(section,"timeouts"))
+    {
+      JSONObject users = Config.getSection(section,"timeouts");
+
+      for(String user : users.keySet())
+        timeouts.put(user.toLowerCase(),users.getInt(user));
+    }
+
     this.type = DatabaseType.valueOf(type);
     this.urlparts = DatabaseUtils.parse(url);
 
@@ -89,6 +114,9 @@ public class Database
     this.compact = Config.get(section,"compact");
     this.dateformat = Config.get(section,"dateformat",null);
 
+    boolean coalesce = Config.get(section,"coalesce",false);
+    int wait = Config.get(section,"coalesce-wait",60) * 1000;
+
 
     section = Config.getSection(config,"repository");
     //*********************  Repos Section  *********************
@@ -148,6 +176,78 @@ public class Database
 
     this.proxy = getPool("proxy",section,true);
     this.fixed = getPool("fixed",section,false);
+
+    if (!section.has("replicas") || !full) this.replicas = null;
+    else this.replicas = getReplicas(section);
+
+
+    section = config.has("cache") ? Config.getSection(config,"cache") : null;
+    //*********************  Cache Section  ********************
+
+    if (section == null || !full) this.cache = null;
+    else this.cache = getCache(section);
+
+    if (!coalesce || !full) this.flight = null;
+    else this.flight = new SingleFlight(wait);
+  }
+
+
+  private Replicas getReplicas(JSONObject config) throws Exception
+  {
+    if (!config.has("fixed"))
+      throw new Exception("Replicas requires a fixed pool");
+
+    JSONObject rconf = Config.getSection(config,"replicas");
+    JSONObject fconf = Config.getSection(config,"fixed");
+
+    // Replicas are reached with the fixed pool's credentials and sizing, unless overridden
+    JSONObject pconf = new JSONObject(fconf.toString());
+
+    for(String key : rconf.keySet())
+      pconf.put(key,rconf.get(key));
+
+    int maxlag = Config.get(rconf,"maxlag",0);
+    int interval = Config.get(rconf,"interval",5);
+    String lagsql = Config.get(rconf,"lagsql",null);
+
+    if (lagsql == null && type == DatabaseType.Postgres)
+      lagsql = "select case when pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() then 0 else extract(epoch from now() - pg_last_xact_replay_timestamp()) end";
+
+    ArrayList<Pool> pools = new ArrayList<Pool>();
+    JSONArray urls = rconf.getJSONArray("jdbc");
+
+    for (int i = 0; i < urls.length(); i++)
+    {
+      Pool pool = getPool("replica",new JSONObject().put("replica",pconf),false);
+      pool.replica(urls.getString(i),i+1);
+      pools.add(pool);
+    }
+
+    return(new Replicas(pools,maxlag,lagsql,interval));
+  }
+
+
+  private ResultCache getCache(JSONObject config) throws Exception
+  {
+    long size = 16*1024*1024;
+    ArrayList<String> tables = new ArrayList<String>();
+
+    int ttl = Config.get(config,"ttl",300);
+    Object bytes = Config.get(config,"size",null);
+
+    if (bytes instanceof Number)
+      size = ((Number) bytes).longValue();
+
+    if (bytes instanceof String)
+      size = Topology.bytes((String) bytes);
+
+    if (config.has("tables"))
+    {
+      JSONArray list = config.getJSONArray("tables");
+      for (int i = 0; i < list.length(); i++) tables.add(list.getString(i));
+    }
+
+    return(new ResultCache(size,ttl,tables));
   }
 
 
@@ -163,12 +263,35 @@ public class Database
     int max = Config.get(pconf,"max");
     int idle = Config.get(pconf,"idle");
     int busy = Config.get(pconf,"busy");
+    int spare = Config.get(pconf,"spare",0);
+    int parallel = Config.get(pconf,"parallel",4);
+    int leak = Config.get(pconf,"leak",0);
+
+    int failures = Config.get(pconf,"breaker.failures",5);
+    int cooldown = Config.get(pconf,"breaker.cooldown",10);
+
+    boolean autoscale = Config.get(pconf,"autoscale",false);
+    Number utilisation = Config.get(pconf,"utilisation",0.7);
 
     String usr = Config.get(pconf,"username");
     String pwd = Config.get(pconf,"password");
     String secret = Config.get(pconf,"auth.secret");
 
-    return(new Pool(proxy,secret,usr,pwd,min,max,idle,busy));
+    CircuitBreaker breaker = new CircuitBreaker(failures,cooldown);
+    PoolScaler scaler = new PoolScaler(autoscale,utilisation.doubleValue());
+
+    return(new Pool(proxy,secret,usr,pwd,min,max,idle,busy,spare,parallel,leak,scaler,breaker));
+  }
+
+
+  public int timeout(String user)
+  {
+    Integer secs = null;
+
+    if (user != null)
+      secs = timeouts.get(user.toLowerCase());
+
+    return(secs != null ? secs : timeout);
   }
 
 
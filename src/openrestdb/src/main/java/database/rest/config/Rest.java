@@ -29,6 +29,7 @@ public class Rest
   public final int dump;
   public final int timeout;
   public final int ssotimeout;
+  public final int exportlimit;
   public final String fileroot;
   public final boolean tmpfiles;
 
@@ -39,6 +40,9 @@ public class Rest
     this.timeout = Config.get(config,"ses.timeout");
     this.ssotimeout = Config.get(config,"sso.timeout");
 
+    // Exports through a RESTServer are returned as one response, and must be bounded
+    this.exportlimit = Topology.bytes(Config.<Object>get(config,"export.limit","64M").toString());
+
     String fileroot = Config.get(config,"files.root");
 
     this.tmpfiles = Config.get(config,"files.tmpnames");
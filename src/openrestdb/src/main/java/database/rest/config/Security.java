@@ -27,6 +27,7 @@ import org.json.JSONObject;
 import java.util.Hashtable;
 import java.lang.reflect.Constructor;
 import database.rest.security.Keystore;
+import database.rest.security.Credentials;
 import database.rest.custom.Authenticator;
 
 
@@ -38,6 +39,7 @@ public class Security
 
   private final boolean tokens;
   private final boolean database;
+  private final Credentials credentials;
   private final Hashtable<String,CustomAuthenticator> authenticators;
 
 
@@ -78,6 +80,10 @@ public class Security
       this.database = Config.get(auth,"database",true);
       this.tokens = Config.get(auth,"pool-tokens",false);
 
+      // Seconds a verified login is cached, rechecked in the background after half of it
+      int ttl = Config.get(auth,"database-cache",0);
+      this.credentials = ttl > 0 ? new Credentials(ttl) : null;
+
       JSONArray custom = Config.getArray(auth,"custom");
 
       for (int i = 0; i < custom.length(); i++)
@@ -99,6 +105,7 @@ public class Security
     {
       this.tokens = false;
       this.database = true;
+      this.credentials = null;
     }
 
     this.secret = Config.get(config,"shared_secret");
@@ -130,6 +137,11 @@ public class Security
     return(database);
   }
 
+  public Credentials credentials()
+  {
+    return(credentials);
+  }
+
   public Hashtable<String,CustomAuthenticator> authenticators()
   {
     return(authenticators);
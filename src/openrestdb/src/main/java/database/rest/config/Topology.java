@@ -30,11 +30,24 @@ public class Topology
   public final short workers;
   public final short waiters;
   public final short servers;
+  public final short minservers;
 
+  public final int cooldown;
+  public final int scalecpu;
+  public final int scaleidle;
+  public final int scalequeue;
+  public final int scalelatency;
+
+  public final int timeout;
+  public final int credits;
   public final int heartbeat;
+  public final boolean shm;
+  public final boolean unix;
 
   public final int extnds;
   public final int extsize;
+  public final int ringsize;
+  public final int ringidle;
 
   public static final int cores = Runtime.getRuntime().availableProcessors();
 
@@ -62,28 +75,70 @@ public class Topology
 
     this.hot = Config.get(config,"hot-standby");
 
+    // Servers is the maximum, RESTServers are started and stopped between min and max
+    JSONObject scaling = config.has("scaling") ? Config.getSection(config,"scaling") : new JSONObject();
+
+    short min = Config.get(scaling,"min-servers",(int) servers).shortValue();
+    this.minservers = (short) Math.max(Math.min(min,servers),servers > 0 ? 1 : 0);
+
+    this.scalecpu = Config.get(scaling,"cpu",80);
+    this.scalequeue = Config.get(scaling,"queue",4);
+    this.scalelatency = Config.get(scaling,"latency",0);
+    this.scaleidle = Config.get(scaling,"idle",300) * 1000;
+    this.cooldown = Config.get(scaling,"cooldown",30) * 1000;
+
     JSONObject ipc = config.getJSONObject("ipc");
 
     this.extnds = this.workers * 2;
 
-    String extsz = Config.get(ipc,"extsize").toString();
-    extsz = extsz.replaceAll(" ","").trim().toUpperCase();
+    this.extsize = bytes(Config.get(ipc,"extsize").toString());
+    this.ringsize = bytes(Config.<Object>get(ipc,"ringsize","1M").toString());
+
+    // Longest park in microseconds for an idle ring buffer reader or writer
+    this.ringidle = Config.get(ipc,"ringidle",1000);
+
+    this.heartbeat = Config.get(ipc,"heartbeat");
+    this.timeout = Config.get(ipc,"timeout",300) * 1000;
+
+    // Concurrent requests a RESTServer accepts, defaults to its worker threads
+    int credits = Config.get(ipc,"credits",0);
+    this.credits = credits > 0 ? credits : this.workers;
+
+    // Connect RESTServers through unix domain sockets instead of loopback tcp,
+    // shm also hands over traffic to memory mapped ring buffers once connected
+    String transport = Config.get(ipc,"transport","tcp");
+
+    this.shm = transport.equalsIgnoreCase("shm");
+    this.unix = shm || transport.equalsIgnoreCase("unix");
+  }
+
+
+  static int bytes(String size)
+  {
+    size = size.replaceAll(" ","").trim().toUpperCase();
 
     int mfac = 1;
 
-    if (extsz.endsWith("K"))
+    // Accept both 16M and 16MB
+    if (size.matches(".*[KMG]B"))
+      size = size.substring(0,size.length()-1);
+
+    if (size.endsWith("K"))
     {
       mfac = 1024;
-      extsz = extsz.substring(0,extsz.length()-1);
+      size = size.substring(0,size.length()-1);
     }
-    else if (extsz.endsWith("M"))
+    else if (size.endsWith("M"))
     {
       mfac = 1024 * 1024;
-      extsz = extsz.substring(0,extsz.length()-1);
+      size = size.substring(0,size.length()-1);
+    }
+    else if (size.endsWith("G"))
+    {
+      mfac = 1024 * 1024 * 1024;
+      size = size.substring(0,size.length()-1);
     }
 
-    this.extsize = Integer.parseInt(extsz) * mfac;
-
-    this.heartbeat = Config.get(ipc,"heartbeat");
+    return(Math.multiplyExact(Integer.parseInt(size),mfac));
   }
 }
\ No newline at end of file
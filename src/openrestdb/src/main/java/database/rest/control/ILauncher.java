@@ -38,4 +38,5 @@ public interface ILauncher
   void stop(String url) throws Exception;
   void status(String url) throws Exception;
   void deploy(String url) throws Exception;
+  void restart(String url) throws Exception;
 }
\ No newline at end of file
@@ -104,6 +104,7 @@ public class Launcher implements ILauncher
         case "stop"   : launcher.stop(url);     break;
         case "status" : launcher.status(url);   break;
         case "deploy" : launcher.deploy(url);   break;
+        case "restart": launcher.restart(url);  break;
 
         default: usage();
       }
@@ -118,7 +119,7 @@ public class Launcher implements ILauncher
 
   private static void usage()
   {
-    System.out.println("usage openrestdb start|stop|deploy|status [url]");
+    System.out.println("usage openrestdb start|stop|deploy|restart|status [url]");
     System.exit(-1);
   }
 
@@ -224,6 +225,39 @@ public class Launcher implements ILauncher
   }
 
 
+  public void restart(String url) throws Exception
+  {
+    // The rolling restart is run by the HTTPServer
+    if (url == null)
+      url = "localhost";
+
+    if (url.startsWith("http://"))
+      url = url.substring(7);
+
+    if (url.startsWith("https://"))
+      url = url.substring(8);
+
+    int pos = url.indexOf(':') + 1;
+    int admin = config.getPorts().admin;
+
+    if (pos > 1)
+    {
+      admin = Integer.parseInt(url.substring(pos));
+      url = url.substring(0,pos-1);
+    }
+
+    Client client = new Client(url,admin,true);
+
+    logger.fine("Connecting");
+    client.connect();
+
+    logger.fine("Sending message");
+    byte[] response = client.send("restart");
+
+    System.out.println(new String(response));
+  }
+
+
   public void status(String url) throws Exception
   {
     if (url == null)
@@ -284,6 +318,12 @@ public class Launcher implements ILauncher
     SimpleDateFormat format = new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss");
     ArrayList<Statistics> statistics = Cluster.getStatistics(config);
 
+    if (topology.minservers < topology.servers)
+    {
+      out.println("RESTServers: "+Cluster.target()+", Min: "+topology.minservers+", Max: "+topology.servers);
+      out.println();
+    }
+
     String hid = String.format("%3s"," id");
     String hpid = String.format("%8s"," pid ");
     String hhits = String.format("%12s","hits  ");
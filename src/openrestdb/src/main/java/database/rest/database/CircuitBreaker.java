@@ -0,0 +1,139 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.database;
+
+
+/**
+ *
+ * Opens after a number of consecutive connect or validation failures. While open,
+ * requests fails fast. After the cooldown, PoolManager probes the database, and
+ * closes the breaker again when a connection succeeds.
+ *
+ */
+public class CircuitBreaker
+{
+  private int failures = 0;
+  private long opened = 0;
+  private State state = State.Closed;
+
+  private final int threshold;
+  private final int cooldown;
+
+
+  public CircuitBreaker(int threshold, int cooldown)
+  {
+    this.cooldown = cooldown;
+    this.threshold = threshold < 1 ? 1 : threshold;
+  }
+
+
+  public synchronized State state()
+  {
+    return(state);
+  }
+
+
+  public synchronized boolean closed()
+  {
+    return(state == State.Closed);
+  }
+
+
+  public synchronized long retry()
+  {
+    long retry = opened + cooldown * 1000L - System.currentTimeMillis();
+    return(retry < 0 ? 0 : (retry + 999) / 1000);
+  }
+
+
+  public synchronized int failures()
+  {
+    return(failures);
+  }
+
+
+  public synchronized boolean success()
+  {
+    failures = 0;
+
+    if (state == State.Closed)
+      return(false);
+
+    state = State.Closed;
+    return(true);
+  }
+
+
+  public synchronized boolean failure(boolean connect)
+  {
+    // A lost connection alone is not an outage, it counts once connects are failing
+    if (!connect && failures == 0)
+      return(false);
+
+    failures++;
+
+    if (state == State.Closed && failures < threshold)
+      return(false);
+
+    boolean opening = state != State.Open;
+
+    state = State.Open;
+    opened = System.currentTimeMillis();
+
+    return(opening);
+  }
+
+
+  public synchronized boolean probe()
+  {
+    if (state != State.Open)
+      return(false);
+
+    if (System.currentTimeMillis() - opened < cooldown * 1000L)
+      return(false);
+
+    state = State.HalfOpen;
+    return(true);
+  }
+
+
+  public synchronized Exception error()
+  {
+    return(new Exception("Database unavailable, retry in "+retry()+" secs"));
+  }
+
+
+  @Override
+  public synchronized String toString()
+  {
+    return("circuit "+state.name().toLowerCase()+", failures: "+failures);
+  }
+
+
+  public static enum State
+  {
+    Closed,
+    Open,
+    HalfOpen
+  }
+}
\ No newline at end of file
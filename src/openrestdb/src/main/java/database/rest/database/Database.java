@@ -22,8 +22,10 @@
 package database.rest.database;
 
 import java.util.HashMap;
+import java.io.OutputStream;
 import java.sql.ResultSet;
 import java.sql.Savepoint;
+import java.sql.Types;
 import java.sql.Statement;
 import java.sql.Connection;
 import java.util.ArrayList;
@@ -32,22 +34,37 @@ import java.sql.DriverManager;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.sql.CallableStatement;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSetMetaData;
 import java.time.format.DateTimeFormatter;
 import database.rest.handlers.rest.DateUtils;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public abstract class Database
 {
   private final int id;
   private Connection conn;
-  private long touched = 0;
   private boolean dangling = false;
+  private volatile long touched = 0;
+  private volatile long borrowed = 0;
+
+  private volatile String owner = null;
+  private volatile String proxyuser = null;
+  private volatile boolean proxied = false;
+  private volatile Statement loading = null;
+  private volatile String session = null;
+  private volatile Throwable stack = null;
+  private volatile boolean reported = false;
+
+  private final AtomicBoolean queued = new AtomicBoolean(false);
+  private final AtomicBoolean claimed = new AtomicBoolean(false);
 
   private static String url;
   private static String teststmt;
+  private final static int VALIDATE = 5;
   private static AtomicInteger next = new AtomicInteger(0);
   private final static Logger logger = Logger.getLogger("rest");
 
@@ -113,6 +130,135 @@ public abstract class Database
   }
 
 
+  public final long borrowed()
+  {
+    return(borrowed);
+  }
+
+
+  final void borrowed(long time)
+  {
+    borrowed = time;
+  }
+
+
+  public String proxyuser()
+  {
+    return(proxyuser);
+  }
+
+
+  public void proxyuser(String username) throws Exception
+  {
+    // Skip the round-trip if the connection already runs as the user
+    if (username.equals(proxyuser))
+      return;
+
+    String current = proxyuser;
+    boolean autocommit = conn.getAutoCommit();
+
+    proxyuser = null;
+
+    // Set role is transactional on some databases, a later rollback would undo
+    // the switch. Anything still open belongs to the previous borrower.
+    if (!autocommit)
+    {
+      conn.rollback();
+      conn.setAutoCommit(true);
+    }
+
+    try
+    {
+      if (current != null || proxied)
+        releaseProxyUser();
+
+      proxied = false;
+      setProxyUser(username);
+
+      proxied = true;
+      proxyuser = username;
+    }
+    finally
+    {
+      if (!autocommit) conn.setAutoCommit(false);
+    }
+  }
+
+
+  /**
+   * Forget which user the connection runs as, after a rollback or an error
+   * the next borrower switches again rather than trusting the cached user.
+   */
+  public void clearProxyUser()
+  {
+    proxyuser = null;
+  }
+
+
+  public String owner()
+  {
+    return(owner);
+  }
+
+
+  public String session()
+  {
+    return(session);
+  }
+
+
+  public void owner(String owner, String session)
+  {
+    this.owner = owner;
+    this.session = session;
+  }
+
+
+  Throwable stack()
+  {
+    return(stack);
+  }
+
+
+  void stack(Throwable stack)
+  {
+    this.stack = stack;
+    this.reported = false;
+  }
+
+
+  boolean reported()
+  {
+    if (reported) return(true);
+    reported = true;
+    return(false);
+  }
+
+
+  boolean claim()
+  {
+    return(claimed.compareAndSet(false,true));
+  }
+
+
+  void unclaim()
+  {
+    claimed.set(false);
+  }
+
+
+  boolean claimed()
+  {
+    return(claimed.get());
+  }
+
+
+  boolean queue(boolean flag)
+  {
+    return(queued.getAndSet(flag));
+  }
+
+
   public Connection connection()
   {
     return(conn);
@@ -174,6 +320,7 @@ public abstract class Database
 
   public void rollback() throws Exception
   {
+    proxyuser = null;
     conn.rollback();
   }
 
@@ -186,6 +333,14 @@ public abstract class Database
   }
 
 
+  public void connect(ArrayList<String> urlparts, String username, String password) throws Exception
+  {
+    String url = DatabaseUtils.bind(urlparts,username,password);
+    this.conn = DriverManager.getConnection(url);
+    touched = System.currentTimeMillis();
+  }
+
+
   public Savepoint setSavePoint() throws Exception
   {
     return(conn.setSavepoint());
@@ -206,6 +361,27 @@ public abstract class Database
 
 
   public boolean validate(boolean log)
+  {
+    try
+    {
+      // Let the driver ping the server, without parsing and executing sql
+      if (conn.isValid(VALIDATE)) return(true);
+      if (log) logger.warning("Connection "+id+" is no longer valid");
+      return(false);
+    }
+    catch (SQLFeatureNotSupportedException | AbstractMethodError e)
+    {
+      return(execute(log));
+    }
+    catch (Exception e)
+    {
+      if (log) logger.log(Level.WARNING,e.getMessage(),e);
+      return(false);
+    }
+  }
+
+
+  private boolean execute(boolean log)
   {
     try
     {
@@ -270,6 +446,99 @@ public abstract class Database
   }
 
 
+  public PreparedStatement prepareBatch(String sql, ArrayList<ArrayList<BindValue>> rows, String dateform) throws Exception
+  {
+    PreparedStatement stmt = conn.prepareStatement(sql);
+
+    for(ArrayList<BindValue> bindvalues : rows)
+    {
+      for (int i = 0; i < bindvalues.size(); i++)
+      {
+        BindValue b = bindvalues.get(i);
+
+        try {stmt.setObject(i+1,b.getValue(),b.getType());}
+        catch (Exception e) {logger.log(Level.WARNING,e.getMessage(),e);}
+      }
+
+      stmt.addBatch();
+    }
+
+    return(stmt);
+  }
+
+
+  public int[] executeBatch(PreparedStatement stmt) throws Exception
+  {
+    return(stmt.executeBatch());
+  }
+
+
+  public int bulk(String table, String[] columns, Integer[] types, ArrayList<Object[]> rows, int timeout) throws Exception
+  {
+    int loaded = 0;
+    String sql = "insert into "+table+" ("+String.join(",",columns)+") values (";
+
+    for (int i = 0; i < columns.length; i++)
+      sql += (i == 0) ? "?" : ",?";
+
+    sql += ")";
+
+    // Batched inserts are sent as array DML by the Oracle driver
+    PreparedStatement stmt = conn.prepareStatement(sql);
+
+    if (timeout > 0) stmt.setQueryTimeout(timeout);
+    loading = stmt;
+
+    try
+    {
+      for(Object[] row : rows)
+      {
+        for (int i = 0; i < columns.length; i++)
+        {
+          int type = (types[i] == null) ? Types.VARCHAR : types[i];
+
+          if (row[i] == null) stmt.setNull(i+1,type);
+          else if (types[i] == null) stmt.setObject(i+1,row[i]);
+          else stmt.setObject(i+1,row[i],types[i]);
+        }
+
+        stmt.addBatch();
+      }
+
+      int[] counts = stmt.executeBatch();
+
+      for (int i = 0; i < counts.length; i++)
+      {
+        if (counts[i] == Statement.SUCCESS_NO_INFO) loaded++;
+        else if (counts[i] > 0) loaded += counts[i];
+      }
+    }
+    finally
+    {
+      loading = null;
+      stmt.close();
+    }
+
+    return(loaded);
+  }
+
+
+  /**
+   * Cancels a running bulk load, called from another thread.
+   */
+  public void cancelBulk() throws Exception
+  {
+    Statement stmt = loading;
+    if (stmt != null) stmt.cancel();
+  }
+
+
+  public long copyOut(String sql, OutputStream out, boolean header) throws Exception
+  {
+    throw new Exception("Feature not supported");
+  }
+
+
   public ResultSet executeQuery(PreparedStatement stmt) throws Exception
   {
     return(stmt.executeQuery());
@@ -84,6 +84,12 @@ public class DatabaseUtils
 
 
   public static String bind(String username, String password)
+  {
+    return(bind(urlparts,username,password));
+  }
+
+
+  public static String bind(ArrayList<String> urlparts, String username, String password)
   {
     String url = "";
 
@@ -0,0 +1,155 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.database;
+
+import org.json.JSONObject;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ *
+ * Lock-free histogram with logarithmic buckets, 8 per power of two.
+ * Recorded values are kept with a precision of 12.5%.
+ *
+ */
+public class Histogram
+{
+  private final AtomicLong max = new AtomicLong(0);
+  private final AtomicLong sum = new AtomicLong(0);
+  private final AtomicLong count = new AtomicLong(0);
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  private static final int SUBBITS = 3;
+  private static final int SUBBUCKETS = 1 << SUBBITS;
+  private static final int BUCKETS = (64 - SUBBITS + 1) * SUBBUCKETS;
+
+
+  public void record(long value)
+  {
+    if (value < 0) value = 0;
+
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    buckets.incrementAndGet(index(value));
+
+    long current = max.get();
+
+    while (value > current && !max.compareAndSet(current,value))
+      current = max.get();
+  }
+
+
+  public long count()
+  {
+    return(count.get());
+  }
+
+
+  public long max()
+  {
+    return(max.get());
+  }
+
+
+  public double mean()
+  {
+    long count = this.count.get();
+    if (count == 0) return(0);
+    return((double) sum.get() / count);
+  }
+
+
+  public long percentile(double pct)
+  {
+    long count = this.count.get();
+    if (count == 0) return(0);
+
+    long rank = (long) Math.ceil(count * pct / 100);
+    if (rank < 1) rank = 1;
+
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += buckets.get(i);
+
+      if (seen >= rank)
+        return(Math.min(upper(i),max.get()));
+    }
+
+    return(max.get());
+  }
+
+
+  public JSONObject toJSON(double scale)
+  {
+    JSONObject json = new JSONObject();
+
+    json.put("count",count());
+    json.put("mean",round(mean() / scale));
+    json.put("p50",round(percentile(50) / scale));
+    json.put("p90",round(percentile(90) / scale));
+    json.put("p99",round(percentile(99) / scale));
+    json.put("p999",round(percentile(99.9) / scale));
+    json.put("max",round(max() / scale));
+
+    return(json);
+  }
+
+
+  private static double round(double value)
+  {
+    return(Math.round(value * 100) / 100.0);
+  }
+
+
+  private static int index(long value)
+  {
+    if (value < SUBBUCKETS) return((int) value);
+
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exp - SUBBITS)) & (SUBBUCKETS - 1);
+
+    return((exp - SUBBITS + 1) * SUBBUCKETS + sub);
+  }
+
+
+  private static long upper(int index)
+  {
+    if (index < SUBBUCKETS) return(index);
+
+    int exp = index / SUBBUCKETS + SUBBITS - 1;
+    long sub = index % SUBBUCKETS;
+
+    long lower = (SUBBUCKETS + sub) << (exp - SUBBITS);
+    return(lower + (1L << (exp - SUBBITS)) - 1);
+  }
+
+
+  @Override
+  public String toString()
+  {
+    return("count: "+count()+" p50: "+percentile(50)+" p99: "+percentile(99)+" max: "+max());
+  }
+}
\ No newline at end of file
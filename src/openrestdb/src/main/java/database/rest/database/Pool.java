@@ -19,41 +19,98 @@
   FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 
+
 package database.rest.database;
 
+import java.util.Set;
 import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ *
+ * Connections are kept on a lock-free stack, the most recently used on top.
+ * When the pool is exhausted, requests queue up and released connections
+ * are handed directly to the oldest waiter.
+ *
+ */
 public class Pool
 {
-  private int size = 0;
-  private boolean closed = false;
+  private String type = null;
+  private Filler filler = null;
+  private ArrayList<String> urlparts = null;
+  private volatile int target = 0;
+  private volatile boolean closed = false;
 
   private final int min;
   private final int max;
   private final int idle;
   private final int busy;
+  private final int leak;
+  private final int spare;
+  private final int parallel;
   private final String token;
   private final boolean proxy;
   private final String username;
   private final String password;
-  private final ArrayList<Database> pool;
+
+  private final PoolScaler scaler;
+  private final CircuitBreaker breaker;
+  private final Histogram waits = new Histogram();
+  private final Histogram holds = new Histogram();
+  private final AtomicInteger size = new AtomicInteger(0);
+  private final ThreadLocal<Database> last = new ThreadLocal<Database>();
+
+  private final Set<Database> members = ConcurrentHashMap.newKeySet();
+  private final ConcurrentLinkedDeque<Database> pool = new ConcurrentLinkedDeque<Database>();
+  private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
+  private volatile long validated = 0;
+  private final AtomicBoolean validating = new AtomicBoolean(false);
+
+  private final static int RECENT = 1000;
+  private final static int AFFINITY = 32;
+  private final static int VALIDATION = 5000;
+
+  private final static ExecutorService validator = Executors.newSingleThreadExecutor((task) ->
+  {
+    Thread thread = new Thread(task,"Pool validator");
+    thread.setDaemon(true);
+    return(thread);
+  });
+
   private final static Logger logger = Logger.getLogger("rest");
 
 
-  public Pool(boolean proxy, String token, String username, String password, int min, int max, int idle, int busy) throws Exception
+  public Pool(boolean proxy, String token, String username, String password, int min, int max, int idle, int busy, int spare, int parallel, int leak, PoolScaler scaler, CircuitBreaker breaker) throws Exception
   {
+    this.breaker = breaker;
+    this.leak = leak;
     this.min = min;
+    this.target = min;
     this.max = max;
     this.busy = busy;
     this.idle = idle;
+    this.spare = spare;
+    this.parallel = parallel < 1 ? 1 : parallel;
+    this.scaler = scaler;
     this.proxy = proxy;
     this.token = token;
     this.username = username;
     this.password = password;
-    this.pool = new ArrayList<Database>();
+    this.type = proxy ? "proxy" : "fixed";
   }
 
 
@@ -81,6 +138,105 @@ public class Pool
   }
 
 
+  public int spare()
+  {
+    return(spare);
+  }
+
+
+  public int size()
+  {
+    return(size.get());
+  }
+
+
+  public int target()
+  {
+    return(target);
+  }
+
+
+  void target(int target)
+  {
+    if (target < min) target = min;
+    if (target > max) target = max;
+
+    this.target = target;
+    if (filler != null) filler.wakeup();
+  }
+
+
+  public int waiting()
+  {
+    return(waiters.size());
+  }
+
+
+  public PoolScaler scaler()
+  {
+    return(scaler);
+  }
+
+
+  public CircuitBreaker breaker()
+  {
+    return(breaker);
+  }
+
+
+  public Histogram waits()
+  {
+    return(waits);
+  }
+
+
+  public Histogram holds()
+  {
+    return(holds);
+  }
+
+
+  public ArrayList<Database> borrowed()
+  {
+    ArrayList<Database> borrowed = new ArrayList<Database>();
+
+    for(Database database : members)
+      if (database.borrowed() > 0) borrowed.add(database);
+
+    return(borrowed);
+  }
+
+
+  void leaks()
+  {
+    if (leak <= 0)
+      return;
+
+    long time = System.currentTimeMillis();
+
+    for(Database database : borrowed())
+    {
+      long held = time - database.borrowed();
+
+      if (held > leak * 1000L && !database.reported())
+        logger.log(Level.WARNING,name()+" connection "+database.id()+" held for "+held/1000+" secs by "+database.owner()+" in session "+database.session()+", possible leak",database.stack());
+    }
+  }
+
+
+  public String type()
+  {
+    return(type);
+  }
+
+
+  public void replica(String url, int index)
+  {
+    this.type = "replica "+index;
+    this.urlparts = DatabaseUtils.parse(url);
+  }
+
+
   public String token()
   {
     return(this.token);
@@ -105,10 +261,20 @@ public class Pool
   }
 
 
-  void init()
+  synchronized void init()
   {
-    Initiator init = new Initiator(this);
-    init.start();
+    if (filler != null)
+      return;
+
+    if (username == null || username.length() == 0 || max <= 0)
+    {
+      closed = true;
+      return;
+    }
+
+    filler = new Filler(this);
+    filler.start();
+    filler.wakeup();
   }
 
 
@@ -118,7 +284,17 @@ public class Pool
     {
       Database c = getConnection();
       if (c == null) return(false);
-      return(c.validate(false));
+
+      boolean valid = c.validate(false);
+
+      // Not a real borrow, keep it out of leaks and hold times
+      c.borrowed(0);
+      c.stack(null);
+
+      if (valid) checkin(c);
+      else remove(c,-1);
+
+      return(valid);
     }
     catch (Throwable e)
     {
@@ -128,9 +304,19 @@ public class Pool
   }
 
 
-  public synchronized void add(Database database)
+  public void add(Database database)
   {
-    pool.add(database);
+    // Adopt a connection opened outside the pool
+    if (!reserve())
+    {
+      database.disconnect();
+      return;
+    }
+
+    database.claim();
+    members.add(database);
+
+    checkin(database);
   }
 
 
@@ -143,32 +329,47 @@ public class Pool
     }
 
     Database database = DatabaseUtils.getInstance();
-    database.connect(username,password);
+
+    if (urlparts == null) database.connect(username,password);
+    else database.connect(urlparts,username,password);
+
     database.touch();
 
     return(database);
   }
 
 
-  public synchronized boolean remove(Database database, long touched)
+  public boolean remove(Database database, long touched)
   {
-    if (!pool.remove(database))
+    // A negative touched means the caller holds the connection
+    if (touched >= 0 && !database.claim())
     {
-      logger.warning("Unable to remove connection "+database);
+      logger.fine("Connection in use "+database);
       return(false);
     }
 
     if (touched > 0 && touched != database.touched())
     {
-      this.add(database);
+      checkin(database);
       logger.warning("Last minut connection reuse "+database);
       return(false);
     }
 
-    size--;
+    pool.removeFirstOccurrence(database);
+
+    if (!members.remove(database))
+    {
+      logger.warning("Unable to remove connection "+database);
+      return(false);
+    }
+
+    size.decrementAndGet();
     database.disconnect();
-    logger.fine("Pool["+(proxy ? "proxy" : "fixed")+"] connection closed");
 
+    // Room for a new connection
+    signal();
+
+    logger.fine(name()+" connection closed");
     return(true);
   }
 
@@ -180,6 +381,43 @@ public class Pool
 
 
   public Database getConnection(String token) throws Exception
+  {
+    return(getConnection(token,null));
+  }
+
+
+  public Database getConnection(String token, String user) throws Exception
+  {
+    long start = System.nanoTime();
+
+    // Prefer connections already switched to the user
+    if (!proxy) user = null;
+
+    try
+    {
+      Database database = acquire(token,user);
+      long waited = System.nanoTime()-start;
+
+      waits.record(waited/1000);
+      scaler.borrowed(waited);
+
+      database.owner(null,null);
+      database.borrowed(System.currentTimeMillis());
+
+      // Only capture the stack when looking for leaks
+      database.stack(leak > 0 ? new Throwable("Connection borrowed") : null);
+
+      return(database);
+    }
+    catch (Exception e)
+    {
+      scaler.failed();
+      throw e;
+    }
+  }
+
+
+  private Database acquire(String token, String user) throws Exception
   {
     if (closed)
       throw new Exception("Pool closed");
@@ -190,166 +428,541 @@ public class Pool
         throw new Exception("Invalid connect token");
     }
 
+    // Fail fast while the database is down
+    if (!breaker.closed())
+      throw breaker.error();
+
     Database database = null;
-    long busy = this.busy() * 1000;
-    long start = System.currentTimeMillis();
+    Filler filler = this.filler;
 
-    synchronized(this)
+    // Don't overtake requests already waiting
+    if (waiters.isEmpty())
+      database = take(user);
+
+    if (database != null)
     {
-      while(pool.size() == 0 && size == max)
-      {
-        if (System.currentTimeMillis() - start > busy)
-          throw new Exception("No more available connections in pool");
+      // Replace the spare connection
+      if (filler != null && spare > 0) filler.wakeup();
+      return(database);
+    }
 
-        this.wait(1000);
-      }
+    // Without a filler, connect on this thread
+    if (filler == null && reserve())
+      return(create());
 
-      if (pool.size() == 0)
-      {
-        database = connect();
-        size++;
-      }
-      else
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.busy());
+
+    Waiter waiter = new Waiter();
+    waiters.add(waiter);
+
+    if (filler != null)
+      filler.wakeup();
+
+    try
+    {
+      while(true)
       {
-        database = pool.remove(0);
+        database = waiter.database();
+        if (database != null) return(database);
+
+        if (waiter.error() != null)
+          throw waiter.error();
+
+        if (!breaker.closed() && waiter.cancel())
+          throw breaker.error();
+
+        if (closed)
+          throw new Exception("Pool closed");
+
+        // A connection was released or removed before we got in line,
+        // only the first in line may take it
+        if (waiters.peek() == waiter)
+          database = take(user);
+
+        if (database != null)
+        {
+          if (waiter.cancel()) return(database);
+          checkin(database);
+
+          if (waiter.error() != null)
+            throw waiter.error();
+
+          return(waiter.database());
+        }
+
+        if (filler == null && reserve())
+        {
+          if (waiter.cancel()) return(create());
+
+          size.decrementAndGet();
+          signal();
+
+          if (waiter.error() != null)
+            throw waiter.error();
+
+          return(waiter.database());
+        }
+
+        long wait = deadline - System.nanoTime();
+
+        if (wait <= 0)
+        {
+          if (waiter.cancel())
+            throw new Exception("No more available connections in pool");
+
+          if (waiter.error() != null)
+            throw waiter.error();
+
+          return(waiter.database());
+        }
+
+        LockSupport.parkNanos(this,wait);
       }
     }
-
-    return(database);
+    finally
+    {
+      // Let the next in line check for free connections
+      waiters.remove(waiter);
+      signal();
+    }
   }
 
 
   public void release(Database database)
   {
-    if (proxy)
+    // Proxy connections keeps their user, it is switched on the next borrow if needed
+
+    if (database.dangling() || !members.contains(database))
+    {
+      database.dangling(false);
+      add(database);
+      return;
+    }
+
+    database.touch();
+    last.set(database);
+
+    if (database.borrowed() > 0)
+    {
+      long held = database.touched()-database.borrowed();
+
+      holds.record(held);
+      scaler.released(held);
+    }
+
+    database.borrowed(0);
+    checkin(database);
+  }
+
+
+  public void close()
+  {
+    closed = true;
+
+    for(Database database : connections())
+      remove(database,0);
+
+    for(Waiter waiter : waiters)
+      LockSupport.unpark(waiter.thread);
+
+    if (filler != null)
+      filler.wakeup();
+  }
+
+
+  public void validate()
+  {
+    // Validation is requested on errors, run at most one pass per interval
+    if (System.currentTimeMillis() - validated < VALIDATION)
+      return;
+
+    if (!validating.compareAndSet(false,true))
+      return;
+
+    validated = System.currentTimeMillis();
+
+    validator.execute(() ->
     {
       try
       {
-        database.releaseProxyUser();
+        int lost = 0;
+
+        for(Database database : connections())
+          if (!check(database,false)) lost++;
+
+        if (lost > 0) logger.warning(name()+" "+lost+" connection(s) lost");
       }
-      catch (Exception e)
+      catch (Throwable e)
       {
         logger.log(Level.SEVERE,e.getMessage(),e);
-        return;
       }
+      finally
+      {
+        validating.set(false);
+      }
+    });
+  }
+
+
+  boolean check(Database database, boolean log)
+  {
+    // Connections just used are known to be alive
+    if (System.currentTimeMillis() - database.touched() < RECENT)
+      return(true);
+
+    // Connections in use are not tested
+    if (!database.claim())
+      return(true);
+
+    if (database.validate(log))
+    {
+      checkin(database);
+      return(true);
+    }
+
+    remove(database,-1);
+    failed("Connection validation failed",false);
+
+    return(false);
+  }
+
+
+  public Database connect() throws Exception
+  {
+    return(connect(this.token));
+  }
+
+
+  ArrayList<Database> connections()
+  {
+    ArrayList<Database> free = new ArrayList<Database>();
+
+    for(Database database : pool)
+    {
+      if (!database.claimed() && !free.contains(database))
+        free.add(database);
+    }
+
+    return(free);
+  }
+
+
+  private Database take(String user)
+  {
+    // Reuse the connection last released by this thread
+    Database database = last.get();
+
+    if (database != null)
+    {
+      last.remove();
+
+      if (user == null || user.equals(database.proxyuser()))
+        if (database.claim()) return(database);
     }
 
-    synchronized(this)
+    if (user != null)
     {
-      if (database.dangling())
+      int scanned = 0;
+
+      for(Database idle : pool)
       {
-        database.dangling(false);
-        if (size >= max) return;
-        size++;
+        if (++scanned > AFFINITY) break;
+
+        if (user.equals(idle.proxyuser()) && idle.claim())
+          return(idle);
       }
+    }
 
-      database.touch();
-      pool.add(0,database);
-      this.notifyAll();
+    while(true)
+    {
+      database = pool.pollFirst();
+      if (database == null) return(null);
+
+      database.queue(false);
+      if (database.claim()) return(database);
     }
   }
 
 
-  public void close()
+  private void checkin(Database database)
   {
-    synchronized(this)
+    while(true)
     {
-      closed = true;
-      int size = this.pool.size();
+      Waiter waiter = waiters.poll();
+      if (waiter == null) break;
 
-      for (int i = 0; i < size; i++)
-      {
-        this.size--;
-        Database database = this.pool.remove(0);
+      if (waiter.handoff(database))
+        return;
+    }
 
-        try {database.disconnect();}
-        catch(Exception e) {;}
-      }
+    database.unclaim();
+
+    // Taken from this thread's cache, it is still on the stack
+    if (!database.queue(true))
+      pool.addFirst(database);
+
+    // Someone might have gone in line before it was returned
+    signal();
+  }
+
+
+  public int free()
+  {
+    int free = 0;
+
+    for(Database database : pool)
+      if (!database.claimed()) free++;
+
+    return(free);
+  }
+
+
+  private void fail(Exception error)
+  {
+    while(true)
+    {
+      Waiter waiter = waiters.poll();
+      if (waiter == null) return;
+      if (waiter.handoff(error)) return;
     }
   }
 
 
-  public void validate()
+  private void signal()
   {
-    synchronized(this)
+    Waiter waiter = waiters.peek();
+    if (waiter != null) LockSupport.unpark(waiter.thread);
+  }
+
+
+  private boolean reserve()
+  {
+    while(true)
+    {
+      int current = size.get();
+      if (current >= max) return(false);
+      if (size.compareAndSet(current,current+1)) return(true);
+    }
+  }
+
+
+  private Database create() throws Exception
+  {
+    try
+    {
+      Database database = connect();
+
+      database.claim();
+      members.add(database);
+
+      if (breaker.success())
+        logger.info(name()+" circuit closed, database available");
+
+      return(database);
+    }
+    catch (Exception e)
+    {
+      size.decrementAndGet();
+      failed(e.getMessage(),true);
+      throw e;
+    }
+  }
+
+
+  void probe()
+  {
+    if (!breaker.probe())
+      return;
+
+    try
     {
-      int size = this.pool.size();
+      Database database = connect();
 
-      for (int i = 0; i < size; i++)
+      if (!database.validate(false))
       {
-        Database database = this.pool.remove(0);
-        if (database.validate()) this.pool.add(database);
+        database.disconnect();
+        throw new Exception("Connection validation failed");
       }
 
-      this.size = pool.size();
+      breaker.success();
+      logger.info(name()+" circuit closed, database available");
+
+      // Connections from before the outage are probably lost
+      add(database);
+
+      validated = 0;
+      validate();
+
+      if (filler != null)
+        filler.wakeup();
+    }
+    catch (Exception e)
+    {
+      breaker.failure(true);
+      logger.warning(name()+" database still unavailable: "+e.getMessage());
     }
   }
 
 
-  public Database connect() throws Exception
+  private void failed(String cause, boolean connect)
   {
-    return(connect(this.token));
+    if (!breaker.failure(connect))
+      return;
+
+    logger.severe(name()+" circuit open after "+breaker.failures()+" failures: "+cause);
+
+    // Release everyone waiting for a connection
+    Exception error = breaker.error();
+    while(waiters.peek() != null) fail(error);
   }
 
 
-  ArrayList<Database> connections()
+  public String name()
   {
-    synchronized(this)
-    {return(new ArrayList<Database>(pool));}
+    return("Pool["+type+"]");
   }
 
 
   public String toString()
   {
-    return("Pool["+(proxy ? "proxy" : "fixed")+"] "+"size: "+size+" free: "+pool.size());
+    return(name()+" size: "+size+" target: "+target+" free: "+connections().size()+" waiting: "+waiters.size()+" opening: "+(filler == null ? 0 : filler.pending.get()));
   }
 
 
-  private static class Initiator extends Thread
+  private static class Waiter
+  {
+    private final Thread thread = Thread.currentThread();
+    private final AtomicReference<Object> slot = new AtomicReference<Object>();
+
+    private static final Object CANCELLED = new Object();
+
+    boolean handoff(Object database)
+    {
+      if (!slot.compareAndSet(null,database))
+        return(false);
+
+      LockSupport.unpark(thread);
+      return(true);
+    }
+
+    boolean cancel()
+    {
+      return(slot.compareAndSet(null,CANCELLED));
+    }
+
+    Database database()
+    {
+      Object database = slot.get();
+      if (database instanceof Database) return((Database) database);
+      return(null);
+    }
+
+    Exception error()
+    {
+      Object error = slot.get();
+      if (error instanceof Exception) return((Exception) error);
+      return(null);
+    }
+  }
+
+
+  /**
+   *
+   * Opens connections in the background, at most parallel at a time.
+   * Keeps the pool at min, and spare connections above those waited for.
+   *
+   */
+  private static class Filler extends Thread
   {
     private final Pool pool;
+    private volatile long retry = 0;
+    private final ExecutorService workers;
+    private final Semaphore signal = new Semaphore(0);
+    private final AtomicInteger pending = new AtomicInteger(0);
 
-    Initiator(Pool pool)
+    Filler(Pool pool)
     {
       this.pool = pool;
       this.setDaemon(true);
-      this.setName("Pool initiator");
+      this.setName("Pool filler");
+
+      this.workers = Executors.newFixedThreadPool(pool.parallel,(task) ->
+      {
+        Thread thread = new Thread(task,"Pool connector");
+        thread.setDaemon(true);
+        return(thread);
+      });
+    }
+
+    void wakeup()
+    {
+      signal.release();
     }
 
     @Override
     public void run()
     {
-      if (pool.username == null)
+      while(!pool.closed)
       {
-        pool.closed = true;
-        return;
+        try
+        {
+          signal.tryAcquire(1,TimeUnit.SECONDS);
+          signal.drainPermits();
+          fill();
+        }
+        catch (Throwable e)
+        {
+          logger.log(Level.SEVERE,e.getMessage(),e);
+        }
       }
 
-      if (pool.username.length() == 0)
-      {
-        pool.closed = true;
+      workers.shutdown();
+    }
+
+    private void fill()
+    {
+      // Back off after failing to connect
+      if (System.currentTimeMillis() < retry)
         return;
-      }
 
-      if (pool.max <= 0)
-      {
-        pool.closed = true;
+      // Recovery is probed by PoolManager
+      if (!pool.breaker.closed())
         return;
+
+      int pending = this.pending.get();
+      int waiting = pool.waiters.size();
+
+      int need = pool.target - pool.size();
+      int demand = waiting + pool.spare - pool.free() - pending;
+
+      if (demand > need) need = demand;
+      if (need > pool.parallel - pending) need = pool.parallel - pending;
+
+      for (int i = 0; i < need; i++)
+      {
+        if (!pool.reserve()) break;
+
+        this.pending.incrementAndGet();
+        workers.execute(this::open);
       }
+    }
 
+    private void open()
+    {
       try
       {
-        for (int i = 0; i < pool.min; i++)
-        {
-          Database database = DatabaseUtils.getInstance();
-          database.connect(pool.username,pool.password);
-          pool.add(database);
-          pool.size++;
-        }
+        pool.checkin(pool.create());
       }
       catch (Exception e)
       {
+        retry = System.currentTimeMillis() + 1000;
         logger.log(Level.WARNING,e.getMessage(),e);
+        pool.fail(e);
+      }
+      finally
+      {
+        pending.decrementAndGet();
+        wakeup();
       }
     }
   }
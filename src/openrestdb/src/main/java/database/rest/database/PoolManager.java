@@ -21,16 +21,32 @@
 
 package database.rest.database;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.nio.file.Path;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import database.rest.config.Paths;
 import database.rest.config.Config;
 import database.rest.servers.Server;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLNonTransientConnectionException;
 
 
 public class PoolManager extends Thread
 {
+  private final Server server;
   private final Config config;
+  private volatile boolean stopped = false;
+  private final static int PROBE = 1000;
   private final static Logger logger = Logger.getLogger("rest");
 
 
@@ -42,6 +58,7 @@ public class PoolManager extends Thread
 
   public PoolManager(Server server, boolean start)
   {
+    this.server = server;
     this.config = server.config();
 
     this.setDaemon(true);
@@ -60,26 +77,54 @@ public class PoolManager extends Thread
     {
       Pool pp = config.getDatabase().proxy;
       Pool fp = config.getDatabase().fixed;
+      Replicas replicas = config.getDatabase().replicas;
 
       if (fp == null && pp == null)
         return;
 
-      if (fp != null) fp.init();
-      if (pp != null) pp.init();
+      ArrayList<Pool> pools = new ArrayList<Pool>();
 
-      int pidle = (pp == null) ? 3600000 : pp.idle();
-      int fidle = (fp == null) ? 3600000 : fp.idle();
-      int sleep = (pidle < fidle) ? pidle * 1000/4 : fidle * 1000/4;
+      if (fp != null) pools.add(fp);
+      if (pp != null) pools.add(pp);
+
+      if (replicas != null)
+        pools.addAll(replicas.pools());
+
+      int sleep = 3600000;
+
+      for(Pool pool : pools)
+      {
+        pool.init();
+        if (pool.idle() * 1000/4 < sleep) sleep = pool.idle() * 1000/4;
+      }
+
+      if (replicas != null)
+        replicas.start();
+
+      long last = System.currentTimeMillis();
 
       while(true)
       {
-        Thread.sleep(sleep);
+        // Probe open circuits every second
+        Thread.sleep(PROBE < sleep ? PROBE : sleep);
+
+        for(Pool pool : pools)
+          pool.probe();
+
+        // Keep the admin view of borrowed connections current
+        report(pools);
+
+        if (System.currentTimeMillis() - last < sleep)
+          continue;
 
-        if (fp != null)
-          cleanout(fp);
+        for(Pool pool : pools)
+        {
+          pool.scaler().sample(pool);
+          cleanout(pool);
+          pool.leaks();
+        }
 
-        if (pp != null)
-          cleanout(pp);
+        last = System.currentTimeMillis();
       }
     }
     catch (Exception e)
@@ -89,71 +134,190 @@ public class PoolManager extends Thread
   }
 
 
-  public void validate()
+  public void validate(Throwable err)
   {
-      logger.warning("Validating pool");
+    // Statement errors say nothing about the state of the connections
+    if (!lost(err)) return;
 
-      try
-      {
-        Pool pp = config.getDatabase().proxy;
-        Pool fp = config.getDatabase().fixed;
+    logger.fine("Validating pool");
+
+    try
+    {
+      Pool pp = config.getDatabase().proxy;
+      Pool fp = config.getDatabase().fixed;
+      Replicas replicas = config.getDatabase().replicas;
+
+      if (fp != null) fp.validate();
+      if (pp != null) pp.validate();
 
-        if (fp != null) checkall(fp);
-        if (pp != null) checkall(pp);
+      if (replicas != null)
+      {
+        for(Pool pool : replicas.pools())
+          pool.validate();
       }
-      catch (Exception e)
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.SEVERE,e.getMessage(),e);
+    }
+  }
+
+
+  public static boolean lost(Throwable err)
+  {
+    while (err != null)
+    {
+      if (err instanceof SQLRecoverableException) return(true);
+      if (err instanceof SQLTransientConnectionException) return(true);
+      if (err instanceof SQLNonTransientConnectionException) return(true);
+
+      if (err instanceof SQLException)
       {
-        logger.log(Level.SEVERE,e.getMessage(),e);
+        String state = ((SQLException) err).getSQLState();
+        if (state != null && state.startsWith("08")) return(true);
       }
+
+      if (err instanceof IOException)
+        return(true);
+
+      err = err.getCause();
+    }
+
+    return(false);
   }
 
 
-  private synchronized void checkall(Pool pool)
+  public static String file(short id)
   {
-    ArrayList<Database> conns = pool.connections();
+    return(Paths.ipcdir + File.separator + "pools" + id + ".json");
+  }
 
-    for (int i = 0; i < conns.size(); i++)
+
+  /**
+   * Removes the pool report, so a stopped server is not listed with connections.
+   */
+  public synchronized void shutdown()
+  {
+    stopped = true;
+
+    try
     {
-      Database conn = conns.get(i);
+      Files.deleteIfExists(java.nio.file.Paths.get(file(server.id())));
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.WARNING,"Unable to remove pool report",e);
+    }
+  }
+
+
+  private synchronized void report(ArrayList<Pool> pools)
+  {
+    if (stopped)
+      return;
+
+    JSONArray list = new JSONArray();
+    long time = System.currentTimeMillis();
 
-      if (!conn.validate(false))
+    for(Pool pool : pools)
+    {
+      JSONArray borrowed = new JSONArray();
+
+      for(Database conn : pool.borrowed())
       {
-        logger.fine("connection lost");
-          pool.remove(conn,0);
+        JSONObject entry = new JSONObject();
+
+        entry.put("id",conn.id());
+        entry.put("age-ms",time - conn.borrowed());
+        entry.put("user",conn.owner() == null ? JSONObject.NULL : conn.owner());
+        entry.put("session",conn.session() == null ? JSONObject.NULL : conn.session());
+
+        Throwable stack = conn.stack();
+
+        if (stack != null)
+        {
+          JSONArray frames = new JSONArray();
+          StackTraceElement[] trace = stack.getStackTrace();
+
+          for (int i = 0; i < trace.length && i < 16; i++)
+            frames.put(trace[i].toString());
+
+          entry.put("stack",frames);
+        }
+
+        borrowed.put(entry);
       }
+
+      JSONObject state = new JSONObject();
+
+      state.put("pool",pool.type());
+      state.put("size",pool.size());
+      state.put("free",pool.free());
+      state.put("waiting",pool.waiting());
+      state.put("wait-ms",pool.waits().toJSON(1000));
+      state.put("hold-ms",pool.holds().toJSON(1));
+      state.put("borrowed",borrowed);
+
+      list.put(state);
+    }
+
+    JSONObject report = new JSONObject();
+
+    report.put("server",server.id());
+    report.put("updated",time);
+    report.put("pools",list);
+
+    try
+    {
+      Path file = java.nio.file.Paths.get(file(server.id()));
+      Path temp = java.nio.file.Paths.get(file(server.id())+".tmp");
+
+      Files.write(temp,report.toString(2).getBytes(StandardCharsets.UTF_8));
+      Files.move(temp,file,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.WARNING,"Unable to write pool report",e);
     }
   }
 
 
-  private synchronized void cleanout(Pool pool)
+  private void cleanout(Pool pool)
   {
-    boolean checkall = false;
+    boolean lost = false;
     long time = System.currentTimeMillis();
     ArrayList<Database> conns = pool.connections();
 
-    int min = pool.min();
+    int surplus = 0;
     int size = conns.size();
     long idle = pool.idle() * 1000;
 
-    for (int i = size - 1; i >= 0 && size > min; i--)
+    // Shrink gradually towards the autoscaled target
+    if (pool.scaler().enabled() && pool.size() > pool.target())
+      surplus = Math.max(1,(pool.size() - pool.target())/4);
+
+    for (int i = size - 1; i >= 0 && pool.size() > pool.target(); i--)
     {
       Database conn = conns.get(i);
       long touched = conn.touched();
       boolean timedout = (time - touched > idle);
 
-      if (timedout || !conn.validate(false))
+      if (timedout || surplus > 0)
       {
-        size--;
-        if (!timedout) checkall = true;
-
-        if (!timedout) logger.fine("connection lost");
-        else           logger.fine("connection: "+conn+" timed out");
+        if (pool.remove(conn,touched)) surplus--;
 
-        pool.remove(conn,touched);
+        if (timedout) logger.fine("connection: "+conn+" timed out");
+        else          logger.fine("connection: "+conn+" scaled down");
+      }
+      else if (!pool.check(conn,false))
+      {
+        size--;
+        lost = true;
+        logger.fine("connection lost");
       }
     }
 
-    if (checkall) checkall(pool);
+    if (lost) pool.validate();
     logger.finest(pool.toString());
   }
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.database;
+
+import java.util.logging.Logger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ *
+ * Tracks borrow rate, wait time and hold time of a pool as moving averages,
+ * and sizes the pool to keep utilisation below target.
+ *
+ */
+public class PoolScaler
+{
+  private long last = 0;
+  private long lborrows = 0;
+  private long lwaited = 0;
+  private long lheld = 0;
+  private long lreleases = 0;
+
+  private double rate = 0;
+  private double wait = 0;
+  private double hold = 0;
+
+  private final boolean enabled;
+  private final double utilisation;
+
+  private final AtomicLong held = new AtomicLong(0);
+  private final AtomicLong waited = new AtomicLong(0);
+  private final AtomicLong borrows = new AtomicLong(0);
+  private final AtomicLong releases = new AtomicLong(0);
+  private final AtomicLong failures = new AtomicLong(0);
+
+  private final static double alpha = 0.3;
+  private final static Logger logger = Logger.getLogger("rest");
+
+
+  public PoolScaler(boolean enabled, double utilisation)
+  {
+    this.enabled = enabled;
+    this.utilisation = utilisation <= 0 || utilisation > 1 ? 0.7 : utilisation;
+  }
+
+
+  public boolean enabled()
+  {
+    return(enabled);
+  }
+
+
+  public synchronized double rate()
+  {
+    return(rate);
+  }
+
+
+  public synchronized double waittime()
+  {
+    return(wait);
+  }
+
+
+  public synchronized double holdtime()
+  {
+    return(hold);
+  }
+
+
+  public long failures()
+  {
+    return(failures.get());
+  }
+
+
+  void borrowed(long nanos)
+  {
+    borrows.incrementAndGet();
+    waited.addAndGet(nanos);
+  }
+
+
+  void released(long millis)
+  {
+    releases.incrementAndGet();
+    held.addAndGet(millis);
+  }
+
+
+  void failed()
+  {
+    failures.incrementAndGet();
+  }
+
+
+  synchronized void sample(Pool pool)
+  {
+    long now = System.currentTimeMillis();
+
+    long borrows = this.borrows.get();
+    long waited = this.waited.get();
+    long releases = this.releases.get();
+    long held = this.held.get();
+
+    if (last > 0 && now > last)
+    {
+      long dborrows = borrows - lborrows;
+      long dreleases = releases - lreleases;
+
+      double rate = dborrows * 1000.0 / (now - last);
+      double wait = dborrows == 0 ? 0 : (waited - lwaited) / 1000000.0 / dborrows;
+      double hold = dreleases == 0 ? this.hold : (double) (held - lheld) / dreleases;
+
+      this.rate = alpha * rate + (1 - alpha) * this.rate;
+      this.wait = alpha * wait + (1 - alpha) * this.wait;
+      this.hold = alpha * hold + (1 - alpha) * this.hold;
+
+      if (enabled) resize(pool);
+    }
+
+    last = now;
+    lheld = held;
+    lwaited = waited;
+    lborrows = borrows;
+    lreleases = releases;
+  }
+
+
+  private void resize(Pool pool)
+  {
+    int target = pool.target();
+
+    // Little's law, connections in use is arrival rate times hold time
+    double inuse = rate * hold / 1000;
+    int wanted = (int) Math.ceil(inuse / utilisation);
+
+    // Requests are queuing, grow ahead of demand
+    if (pool.waiting() > 0 || wait > 1)
+      wanted = Math.max(wanted,target + Math.max(1,target/4));
+
+    int size = target;
+
+    if (wanted > target) size = wanted;
+    else if (wanted < target) size = Math.max(wanted,target - Math.max(1,target/10));
+
+    if (size < pool.min()) size = pool.min();
+    if (size > pool.max()) size = pool.max();
+
+    if (size == target)
+      return;
+
+    pool.target(size);
+    logger.info(pool.name()+" autoscale "+target+" -> "+size+String.format(" (rate %.1f/s, wait %.1f ms, hold %.1f ms)",rate,wait,hold));
+  }
+
+
+  @Override
+  public synchronized String toString()
+  {
+    return(String.format("rate %.1f/s, wait %.1f ms, hold %.1f ms",rate,wait,hold));
+  }
+}
\ No newline at end of file
@@ -0,0 +1,227 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.database;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *
+ * Read-only replica pools. Selects are routed to the healthy replica with the
+ * fewest outstanding requests. Replicas are checked in the background, and taken
+ * out of rotation when they fail or lag more than maxlag seconds behind.
+ *
+ */
+public class Replicas extends Thread
+{
+  private final int maxlag;
+  private final int interval;
+  private final String lagsql;
+  private final ArrayList<Replica> replicas;
+  private final AtomicInteger next = new AtomicInteger(0);
+  private final static Logger logger = Logger.getLogger("rest");
+
+
+  public Replicas(ArrayList<Pool> pools, int maxlag, String lagsql, int interval)
+  {
+    this.maxlag = maxlag;
+    this.lagsql = lagsql;
+    this.interval = interval;
+    this.replicas = new ArrayList<Replica>();
+
+    for(Pool pool : pools)
+      replicas.add(new Replica(pool));
+
+    this.setDaemon(true);
+    this.setName("Replicas");
+  }
+
+
+  public ArrayList<Replica> replicas()
+  {
+    return(replicas);
+  }
+
+
+  public ArrayList<Pool> pools()
+  {
+    ArrayList<Pool> pools = new ArrayList<Pool>();
+    for(Replica replica : replicas) pools.add(replica.pool);
+    return(pools);
+  }
+
+
+  public Replica route()
+  {
+    Replica route = null;
+    int size = replicas.size();
+
+    // Start at a rotating offset, to spread ties
+    int start = Math.abs(next.getAndIncrement() % size);
+
+    for (int i = 0; i < size; i++)
+    {
+      Replica replica = replicas.get((start + i) % size);
+
+      if (!replica.healthy)
+        continue;
+
+      if (route == null || replica.outstanding.get() < route.outstanding.get())
+        route = replica;
+    }
+
+    if (route != null)
+      route.outstanding.incrementAndGet();
+
+    return(route);
+  }
+
+
+  public void failed(Replica replica, Throwable err)
+  {
+    // Only connection errors takes the replica out of rotation
+    if (!PoolManager.lost(err))
+      return;
+
+    if (replica.healthy)
+      logger.warning(replica.pool.name()+" failed, routing to primary: "+err.getMessage());
+
+    replica.healthy = false;
+  }
+
+
+  @Override
+  public void run()
+  {
+    while(true)
+    {
+      for(Replica replica : replicas)
+        check(replica);
+
+      try {Thread.sleep(interval * 1000L);}
+      catch (InterruptedException e) {return;}
+    }
+  }
+
+
+  private void check(Replica replica)
+  {
+    boolean broken = true;
+    boolean healthy = false;
+    Database database = null;
+
+    try
+    {
+      database = replica.pool.getConnection();
+
+      if (lagsql == null)
+      {
+        healthy = database.validate(false);
+      }
+      else
+      {
+        Statement stmt = database.connection().createStatement();
+        ResultSet rset = stmt.executeQuery(lagsql);
+
+        if (rset.next())
+          replica.lag = rset.getDouble(1);
+
+        rset.close();
+        stmt.close();
+
+        healthy = maxlag <= 0 || replica.lag <= maxlag;
+      }
+
+      broken = !healthy && lagsql == null;
+    }
+    catch (Throwable e)
+    {
+      logger.log(Level.FINE,e.getMessage(),e);
+    }
+    finally
+    {
+      if (database != null)
+      {
+        if (!broken) replica.pool.release(database);
+        else replica.pool.remove(database,-1);
+      }
+    }
+
+    if (healthy != replica.healthy)
+    {
+      if (healthy) logger.info(replica.pool.name()+" back in rotation, lag "+replica.lag+" secs");
+      else logger.warning(replica.pool.name()+" taken out of rotation, lag "+replica.lag+" secs");
+    }
+
+    replica.healthy = healthy;
+  }
+
+
+  public static class Replica
+  {
+    private final Pool pool;
+    private volatile double lag = 0;
+    private volatile boolean healthy = false;
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+
+    private Replica(Pool pool)
+    {
+      this.pool = pool;
+    }
+
+
+    public Pool pool()
+    {
+      return(pool);
+    }
+
+
+    public double lag()
+    {
+      return(lag);
+    }
+
+
+    public boolean healthy()
+    {
+      return(healthy);
+    }
+
+
+    public int outstanding()
+    {
+      return(outstanding.get());
+    }
+
+
+    public void done()
+    {
+      outstanding.decrementAndGet();
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,335 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.database;
+
+import java.util.Map;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.logging.Logger;
+
+
+/**
+ *
+ * Cache for serialized select responses. Entries are evicted least recently used
+ * when the byte budget is exceeded, when they expire, or when a statement modifies
+ * one of the tables they were read from.
+ *
+ * Every invalidation bumps a per table generation. A select captures the generation
+ * of its tables before executing, and its response is only stored if no modification
+ * happened in between, so a slow reader cannot put back data that was just invalidated.
+ *
+ */
+public class ResultCache
+{
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long cleared = 0;
+
+  private final long size;
+  private final long ttl;
+  private final HashSet<String> tables;
+
+  private final HashMap<String,HashSet<String>> tags =
+    new HashMap<String,HashSet<String>>();
+
+  private final HashMap<String,Long> generations =
+    new HashMap<String,Long>();
+
+  private final LinkedHashMap<String,Entry> entries =
+    new LinkedHashMap<String,Entry>(64,0.75f,true);
+
+  public final static String ALL = "*";
+  private final static Logger logger = Logger.getLogger("rest");
+
+  private final static Pattern from = Pattern.compile("(?i)\\b(from|join)\\s+(.*?)(?=\\b(from|select|where|group|order|having|union|join|on|using|limit|fetch|offset|for|left|right|inner|outer|full|cross|natural)\\b|\\)|$)");
+  private final static Pattern target = Pattern.compile("(?i)^\\s*(insert\\s+into|upsert\\s+into|merge\\s+into|delete\\s+from|delete|update|truncate\\s+table|truncate)\\s+([\\w$#.\"]+)");
+
+
+  public ResultCache(long size, int ttl, ArrayList<String> tables)
+  {
+    this.size = size;
+    this.ttl = ttl * 1000L;
+    this.tables = new HashSet<String>();
+
+    for(String table : tables)
+      this.tables.add(tag(table));
+  }
+
+
+  public static String normalize(String sql)
+  {
+    boolean quoted = false;
+    boolean space = false;
+    StringBuilder norm = new StringBuilder(sql.length());
+
+    for (int i = 0; i < sql.length(); i++)
+    {
+      char c = sql.charAt(i);
+
+      if (c == '\'')
+        quoted = !quoted;
+
+      if (!quoted && Character.isWhitespace(c))
+      {
+        space = true;
+        continue;
+      }
+
+      if (space && norm.length() > 0) norm.append(' ');
+
+      space = false;
+      norm.append(c);
+    }
+
+    return(norm.toString());
+  }
+
+
+  public static String key(String user, String sql, ArrayList<BindValue> bindvalues, String... options)
+  {
+    StringBuilder key = new StringBuilder();
+
+    key.append(user).append('\u0000');
+    key.append(normalize(sql)).append('\u0000');
+
+    for(BindValue bindv : bindvalues)
+      key.append(bindv.getType()).append(':').append(bindv.getValue()).append('\u0000');
+
+    for(String option : options)
+      key.append(option).append('\u0000');
+
+    return(key.toString());
+  }
+
+
+  public static HashSet<String> tables(String sql)
+  {
+    HashSet<String> tables = new HashSet<String>();
+    Matcher matcher = from.matcher(normalize(sql));
+
+    while(matcher.find())
+    {
+      for(String part : matcher.group(2).split(","))
+      {
+        part = part.trim();
+        if (part.length() == 0 || part.startsWith("(")) continue;
+        tables.add(tag(part.split(" ")[0]));
+      }
+    }
+
+    return(tables);
+  }
+
+
+  public static String target(String sql)
+  {
+    Matcher matcher = target.matcher(sql);
+    if (!matcher.find()) return(null);
+    return(tag(matcher.group(2)));
+  }
+
+
+  public boolean lookup(HashSet<String> tables)
+  {
+    if (tables.size() == 0) return(false);
+    return(this.tables.containsAll(tables));
+  }
+
+
+  public synchronized long generation(HashSet<String> tables)
+  {
+    long generation = cleared;
+
+    for(String table : tables)
+    {
+      Long gen = generations.get(table);
+      if (gen != null) generation += gen;
+    }
+
+    return(generation);
+  }
+
+
+  public synchronized String get(String key)
+  {
+    Entry entry = entries.get(key);
+
+    if (entry == null)
+    {
+      misses++;
+      return(null);
+    }
+
+    if (entry.expires < System.currentTimeMillis())
+    {
+      misses++;
+      remove(key);
+      return(null);
+    }
+
+    hits++;
+    return(entry.response);
+  }
+
+
+  public synchronized void put(String key, String response, HashSet<String> tables, long generation)
+  {
+    // The tables were modified while the select was running
+    if (generation(tables) != generation)
+      return;
+
+    Entry entry = new Entry(key,response,tables,System.currentTimeMillis()+ttl);
+
+    // Don't let a single response flush the whole cache
+    if (entry.bytes > size / 4)
+      return;
+
+    remove(key);
+    entries.put(key,entry);
+    bytes += entry.bytes;
+
+    for(String table : tables)
+    {
+      HashSet<String> keys = tags.get(table);
+
+      if (keys == null)
+      {
+        keys = new HashSet<String>();
+        tags.put(table,keys);
+      }
+
+      keys.add(key);
+    }
+
+    Iterator<Map.Entry<String,Entry>> lru = entries.entrySet().iterator();
+
+    while(bytes > size && lru.hasNext())
+    {
+      Entry next = lru.next().getValue();
+
+      lru.remove();
+      untag(next);
+      bytes -= next.bytes;
+    }
+  }
+
+
+  public synchronized void invalidate(String table)
+  {
+    if (table == null)
+      return;
+
+    if (table.equals(ALL))
+    {
+      clear();
+      return;
+    }
+
+    Long gen = generations.get(table);
+    generations.put(table,gen == null ? 1 : gen + 1);
+
+    HashSet<String> keys = tags.remove(table);
+
+    if (keys == null)
+      return;
+
+    for(String key : keys)
+      remove(key);
+
+    logger.fine("ResultCache invalidated "+keys.size()+" entries for "+table);
+  }
+
+
+  public synchronized void clear()
+  {
+    bytes = 0;
+    cleared++;
+    tags.clear();
+    entries.clear();
+  }
+
+
+  private void remove(String key)
+  {
+    Entry entry = entries.remove(key);
+
+    if (entry != null)
+    {
+      untag(entry);
+      bytes -= entry.bytes;
+    }
+  }
+
+
+  private void untag(Entry entry)
+  {
+    for(String table : entry.tables)
+    {
+      HashSet<String> keys = tags.get(table);
+      if (keys != null) keys.remove(entry.key);
+      if (keys != null && keys.size() == 0) tags.remove(table);
+    }
+  }
+
+
+  public static String tag(String table)
+  {
+    table = table.replace("\"","").toLowerCase();
+
+    int pos = table.lastIndexOf('.');
+    if (pos >= 0) table = table.substring(pos+1);
+
+    return(table);
+  }
+
+
+  @Override
+  public synchronized String toString()
+  {
+    return("ResultCache entries: "+entries.size()+" bytes: "+bytes+"/"+size+" hits: "+hits+" misses: "+misses);
+  }
+
+
+  private static class Entry
+  {
+    final String key;
+    final long bytes;
+    final long expires;
+    final String response;
+    final HashSet<String> tables;
+
+    Entry(String key, String response, HashSet<String> tables, long expires)
+    {
+      this.key = key;
+      this.tables = tables;
+      this.expires = expires;
+      this.response = response;
+      this.bytes = 2L * (key.length() + response.length()) + 64;
+    }
+  }
+}
\ No newline at end of file
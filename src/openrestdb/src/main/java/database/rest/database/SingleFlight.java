@@ -0,0 +1,120 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.database;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ *
+ * Coalesces identical concurrent reads. The first request for a key executes the
+ * statement, requests arriving while it runs waits for, and shares, its response.
+ *
+ */
+public class SingleFlight
+{
+  private final int timeout;
+
+  private final ConcurrentHashMap<String,Call> flights =
+    new ConcurrentHashMap<String,Call>();
+
+
+  public SingleFlight(int timeout)
+  {
+    this.timeout = timeout;
+  }
+
+
+  public Call join(String key)
+  {
+    Call call = new Call(key);
+    Call running = flights.putIfAbsent(key,call);
+
+    if (running == null) return(call);
+    return(running);
+  }
+
+
+  public String await(Call call)
+  {
+    try
+    {
+      if (!call.done.await(timeout,TimeUnit.MILLISECONDS))
+        return(null);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return(null);
+    }
+
+    return(call.response);
+  }
+
+
+  public void complete(Call call, String response)
+  {
+    call.response = response;
+    release(call);
+  }
+
+
+  public void release(Call call)
+  {
+    if (call.done.getCount() == 0)
+      return;
+
+    flights.remove(call.key,call);
+    call.done.countDown();
+  }
+
+
+  @Override
+  public String toString()
+  {
+    return("SingleFlight running: "+flights.size());
+  }
+
+
+  public static class Call
+  {
+    private final String key;
+    private final Thread leader;
+    private volatile String response = null;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private Call(String key)
+    {
+      this.key = key;
+      this.leader = Thread.currentThread();
+    }
+
+
+    public boolean leader()
+    {
+      return(leader == Thread.currentThread());
+    }
+  }
+}
\ No newline at end of file
@@ -21,10 +21,18 @@
 
 package database.rest.database.impl;
 
+import java.util.Date;
 import java.sql.ResultSet;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.PreparedStatement;
+import org.postgresql.PGConnection;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 import database.rest.database.Database;
 import database.rest.database.BindValue;
 import database.rest.database.BindValueDef;
@@ -32,6 +40,8 @@ import database.rest.database.BindValueDef;
 
 public class Postgres extends Database
 {
+  private volatile boolean copying = false;
+
   @Override
   public void setProxyUser(String username) throws Exception
   {
@@ -43,6 +53,77 @@ public class Postgres extends Database
   {
   }
 
+  @Override
+  public int bulk(String table, String[] columns, Integer[] types, ArrayList<Object[]> rows, int timeout) throws Exception
+  {
+    // COPY csv leaves all conversions to the server, declared types needs the batched insert
+    for (int i = 0; i < types.length; i++)
+      if (types[i] != null) return(super.bulk(table,columns,types,rows,timeout));
+
+    StringBuilder csv = new StringBuilder();
+    String sql = "copy "+table+" ("+String.join(",",columns)+") from stdin with (format csv)";
+
+    // COPY has no statement to put a query timeout on, let the server enforce it
+    if (timeout > 0) super.execute("set statement_timeout = "+(timeout*1000));
+
+    CopyIn in = null;
+
+    try
+    {
+      CopyManager copy = super.connection().unwrap(PGConnection.class).getCopyAPI();
+
+      in = copy.copyIn(sql);
+      copying = true;
+
+      // Rows are written one at a time, the driver buffers and flushes
+      for(Object[] row : rows)
+      {
+        csv.setLength(0);
+
+        for (int i = 0; i < row.length; i++)
+        {
+          if (i > 0) csv.append(',');
+          csv(csv,row[i]);
+        }
+
+        csv.append('\n');
+
+        byte[] line = csv.toString().getBytes(StandardCharsets.UTF_8);
+        in.writeToCopy(line,0,line.length);
+      }
+
+      return((int) in.endCopy());
+    }
+    finally
+    {
+      copying = false;
+      if (in != null && in.isActive()) in.cancelCopy();
+
+      // Fails if the transaction was aborted, the rollback then undoes the setting
+      if (timeout > 0)
+      {
+        try {super.execute("reset statement_timeout");}
+        catch (Exception e) {;}
+      }
+    }
+  }
+
+  @Override
+  public void cancelBulk() throws Exception
+  {
+    // Cancels whatever the backend runs, only done while copying
+    if (copying) super.connection().unwrap(BaseConnection.class).cancelQuery();
+    else super.cancelBulk();
+  }
+
+  @Override
+  public long copyOut(String sql, OutputStream out, boolean header) throws Exception
+  {
+    sql = "copy ("+sql+") to stdout with (format csv, header "+header+")";
+    CopyManager copy = super.connection().unwrap(PGConnection.class).getCopyAPI();
+    return(copy.copyOut(sql,out));
+  }
+
   @Override
   public ReturnValueHandle prepareWithReturnValues(String sql, ArrayList<BindValue> bindvalues, HashMap<String,BindValueDef> alltypes, String dateform) throws Exception
   {
@@ -54,4 +135,24 @@ public class Postgres extends Database
   {
     return(stmt.executeQuery());
   }
+
+  private void csv(StringBuilder csv, Object value)
+  {
+    // Unquoted empty is null, quoted empty is an empty string
+    if (value == null)
+      return;
+
+    if (value instanceof Date)
+      value = new Timestamp(((Date) value).getTime());
+
+    if (value instanceof Number || value instanceof Boolean)
+    {
+      csv.append(value);
+      return;
+    }
+
+    csv.append('"');
+    csv.append(value.toString().replace("\"","\"\""));
+    csv.append('"');
+  }
 }
\ No newline at end of file
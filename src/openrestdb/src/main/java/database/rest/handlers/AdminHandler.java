@@ -21,8 +21,18 @@
 
 package database.rest.handlers;
 
+import java.util.HashSet;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.NoSuchFileException;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import java.util.logging.Logger;
 import database.rest.config.Config;
+import database.rest.cluster.Cluster;
+import java.nio.charset.StandardCharsets;
+import database.rest.database.PoolManager;
 import database.rest.servers.Server;
 import database.rest.control.Launcher;
 import database.rest.cluster.PreAuthRecord;
@@ -91,11 +101,20 @@ public class AdminHandler extends Handler
         Deployment.get().deploy();
         break;
 
+      case "restart":
+        response.setBody(server.restart());
+        break;
+
       case "status":
         String status = Launcher.getStatus(config());
         response.setBody(status);
         break;
 
+      case "connections":
+        response.setContentType(config().getHTTP().mimetypes.get("json"));
+        response.setBody(connections(server));
+        break;
+
       case "authenticate":
         String username = new String(request.body());
         PreAuthRecord auth = SessionManager.preauth(username);
@@ -112,4 +131,35 @@ public class AdminHandler extends Handler
 
     return(response);
   }
+
+
+  private String connections(Server server) throws Exception
+  {
+    JSONArray servers = new JSONArray();
+    Short[] ids = Cluster.getServers(config());
+    HashSet<Short> running = Cluster.getRunningServers();
+
+    // Each process with pools reports borrowed connections on every PoolManager tick
+    for (short id = 0; id < ids[0] + ids[1]; id++)
+    {
+      // A report left behind by a process that died is stale
+      if (id != server.id() && !running.contains(id)) continue;
+
+      Path file = Paths.get(PoolManager.file(id));
+      if (!Files.exists(file)) continue;
+
+      // The process might remove it on shutdown while we read
+      try
+      {
+        String report = new String(Files.readAllBytes(file),StandardCharsets.UTF_8);
+        servers.put(new JSONObject(report));
+      }
+      catch (NoSuchFileException e)
+      {
+        continue;
+      }
+    }
+
+    return(servers.toString(2));
+  }
 }
\ No newline at end of file
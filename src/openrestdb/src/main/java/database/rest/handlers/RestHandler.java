@@ -33,6 +33,7 @@ import database.rest.handlers.file.PathUtil;
 import database.rest.servers.rest.RESTClient;
 import database.rest.servers.http.HTTPRequest;
 import database.rest.servers.http.HTTPResponse;
+import database.rest.servers.http.HTTPChunkedStream;
 import database.rest.handlers.rest.JSONFormatter;
 import database.rest.config.Handlers.HandlerProperties;
 
@@ -41,6 +42,7 @@ public class RestHandler extends Handler
 {
   private final PathUtil path;
   private final CrossOrigin cors;
+  private final static int CHUNK = 64*1024;
   private final static Logger logger = Logger.getLogger("rest");
 
 
@@ -110,7 +112,14 @@ public class RestHandler extends Handler
       }
 
       String host = request.remote();
-      byte[] data = client.send(host,request.page());
+      byte[] data = client.send(host,request.page(),request);
+
+      // The response was streamed, and has already been written
+      if (data == null)
+      {
+        log(logger,request,response);
+        return(null);
+      }
 
       response = new HTTPResponse(data);
       log(logger,request,response);
@@ -157,9 +166,35 @@ public class RestHandler extends Handler
     if (qret != null) returning = Boolean.parseBoolean(qret);
 
     Rest rest = new Rest(server,savepoint,remote);
+    HTTPChunkedStream stream = null;
+
+    // Exports are streamed to the client, directly or through the HTTPServer
+    if (request.channel() != null)
+      stream = new HTTPChunkedStream(request,response,CHUNK);
+
+    else if (request.transport() != null)
+      stream = new HTTPChunkedStream(response,request.transport(),CHUNK);
+
+    if (stream != null) rest.stream(stream);
+
+    request.onabort(rest::cancel);
+
+    String result = null;
+
+    try {result = rest.execute(path,payload,returning);}
+    finally {request.onabort(null);}
+
+    if (stream != null && stream.started())
+    {
+      if (rest.failed()) stream.abort();
+      log(logger,request,response);
+      return(null);
+    }
 
     response.setContentType(json);
-    response.setBody(rest.execute(path,payload,returning));
+    if (rest.mimetype() != null) response.setContentType(rest.mimetype());
+
+    response.setBody(result);
     response.setResponse(rest.response());
 
     if (rest.isConnectRequest())
@@ -0,0 +1,171 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.handlers.rest;
+
+import java.io.Writer;
+import org.json.JSONObject;
+import java.io.OutputStream;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+
+public class ExportFormatter
+{
+  private long rows = 0;
+  private String[] columns = null;
+
+  private final Type type;
+  private final Writer out;
+  private final boolean header;
+
+
+  public ExportFormatter(Type type, OutputStream out, boolean header)
+  {
+    this.type = type;
+    this.header = header;
+    this.out = new BufferedWriter(new OutputStreamWriter(out,StandardCharsets.UTF_8),8192);
+  }
+
+
+  public static Type getType(String format) throws Exception
+  {
+    if (format == null)
+      return(Type.CSV);
+
+    switch(format.toLowerCase())
+    {
+      case "csv"    : return(Type.CSV);
+      case "ndjson" : return(Type.NDJSON);
+      default       : throw new Exception("Unknown export format '"+format+"'");
+    }
+  }
+
+
+  public String mimetype()
+  {
+    return(type.mimetype);
+  }
+
+
+  public long rows()
+  {
+    return(rows);
+  }
+
+
+  public void columns(String[] columns) throws Exception
+  {
+    this.columns = columns;
+
+    if (header && type == Type.CSV)
+    {
+      for (int i = 0; i < columns.length; i++)
+      {
+        if (i > 0) out.write(',');
+        csv(columns[i]);
+      }
+
+      out.write('\n');
+    }
+  }
+
+
+  public void add(Object[] row) throws Exception
+  {
+    rows++;
+
+    if (type == Type.CSV)
+    {
+      for (int i = 0; i < row.length; i++)
+      {
+        if (i > 0) out.write(',');
+        if (row[i] != null) csv(row[i]);
+      }
+    }
+    else
+    {
+      out.write('{');
+
+      for (int i = 0; i < row.length; i++)
+      {
+        if (i > 0) out.write(',');
+        out.write(JSONObject.quote(columns[i]));
+        out.write(':');
+        out.write(JSONObject.valueToString(row[i]));
+      }
+
+      out.write('}');
+    }
+
+    out.write('\n');
+  }
+
+
+  public void flush() throws Exception
+  {
+    out.flush();
+  }
+
+
+  private void csv(Object value) throws Exception
+  {
+    if (value instanceof Number || value instanceof Boolean)
+    {
+      out.write(value.toString());
+      return;
+    }
+
+    String str = value.toString();
+    boolean quote = str.length() == 0;
+
+    for (int i = 0; !quote && i < str.length(); i++)
+    {
+      char c = str.charAt(i);
+      if (c == ',' || c == '"' || c == '\n' || c == '\r') quote = true;
+    }
+
+    if (!quote)
+    {
+      out.write(str);
+      return;
+    }
+
+    out.write('"');
+    out.write(str.replace("\"","\"\""));
+    out.write('"');
+  }
+
+
+  public static enum Type
+  {
+    CSV("text/csv"),
+    NDJSON("application/x-ndjson");
+
+    public final String mimetype;
+
+    private Type(String mimetype)
+    {
+      this.mimetype = mimetype;
+    }
+  }
+}
\ No newline at end of file
@@ -46,10 +46,12 @@ public class Request
   {
     function.add("ddl");
     function.add("map");
+    function.add("bulk");
     function.add("call");
     function.add("batch");
     function.add("merge");
     function.add("fetch");
+    function.add("export");
     function.add("script");
     function.add("select");
     function.add("insert");
@@ -27,13 +27,24 @@ import java.util.Date;
 import database.Version;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.Objects;
 import org.json.JSONArray;
 import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import org.json.JSONObject;
 import javax.crypto.Cipher;
+import org.json.JSONTokener;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import javax.crypto.SecretKey;
 import java.io.FileInputStream;
@@ -42,14 +53,24 @@ import java.util.logging.Logger;
 import java.sql.PreparedStatement;
 import database.rest.config.Config;
 import database.rest.database.Pool;
+import database.rest.database.PoolScaler;
+import database.rest.database.PoolManager;
 import database.rest.servers.Server;
 import java.io.ByteArrayOutputStream;
 import javax.crypto.spec.SecretKeySpec;
 import database.rest.custom.SQLRewriter;
 import database.rest.database.BindValue;
 import database.rest.database.SQLParser;
+import database.rest.database.Replicas;
+import database.rest.database.ResultCache;
+import database.rest.database.Replicas.Replica;
+import database.rest.database.SingleFlight;
+import database.rest.database.SQLTypes;
 import database.rest.custom.SQLValidator;
 import database.rest.database.AuthMethod;
+import database.rest.config.DatabaseType;
+import database.rest.database.DatabaseUtils;
+import database.rest.servers.http.HTTPChunkedStream;
 import database.rest.custom.PreProcessor;
 import database.rest.custom.PostProcessor;
 import database.rest.cluster.PreAuthRecord;
@@ -86,9 +107,17 @@ public class Rest
 
   private Request request = null;
 
+  private String mimetype = null;
+  private HTTPChunkedStream stream = null;
+
   private int code = 200;
   private boolean failed = false;
+  private volatile boolean cancelled = false;
 
+  private final ResultCache cache;
+  private final Pool primary;
+  private final Replicas replicas;
+  private final SingleFlight flight;
   private final SQLRewriter rewriter;
   private final SQLValidator validator;
 
@@ -97,6 +126,7 @@ public class Rest
 
   private final static Logger logger = Logger.getLogger("rest");
   private final HashMap<String,BindValueDef> bindvalues = new HashMap<String,BindValueDef>();
+  private final Set<JSONObject> intercepted = Collections.newSetFromMap(new IdentityHashMap<JSONObject,Boolean>());
   private static final ConcurrentHashMap<String,String> sqlfiles = new ConcurrentHashMap<String,String>();
 
 
@@ -116,6 +146,10 @@ public class Rest
     this.secret    = secret(config);
     this.instance  = server.config().instance();
 
+    this.cache     = config.getDatabase().cache;
+    this.flight    = config.getDatabase().flight;
+    this.primary   = config.getDatabase().fixed;
+    this.replicas  = config.getDatabase().replicas;
     this.compact   = config.getDatabase().compact;
     this.rewriter  = config.getDatabase().rewriter;
     this.validator = config.getDatabase().validator;
@@ -183,7 +217,10 @@ public class Rest
       }
 
       if (session != null)
+      {
         session.sesid(request.sesid);
+        session.timeout(timeout(request.payload,session.username()));
+      }
 
       if (request.nvlfunc().equals("batch"))
         return(batch(request.payload));
@@ -210,12 +247,30 @@ public class Rest
     return(code);
   }
 
+  public String mimetype()
+  {
+    return(mimetype);
+  }
+
+  public void stream(HTTPChunkedStream stream)
+  {
+    this.stream = stream;
+  }
+
   public boolean failed()
   {
     return(failed);
   }
 
 
+  public void cancel()
+  {
+    this.cancelled = true;
+    Session session = state.session();
+    if (session != null) session.cancel();
+  }
+
+
   public boolean isPing()
   {
     return(this.ping);
@@ -305,11 +360,39 @@ public class Rest
         state.prepare(true,false);
       }
 
+      int single = 0;
+
       for (int i = 0; i < services.length(); i++)
       {
         String cont = "\n";
         if (i < services.length() - 1) cont += ",\n";
 
+        // Consecutive steps with the same statement are sent as one jdbc batch
+        if (i >= single && state.session() != null)
+        {
+          int steps = homogeneous(services,i);
+
+          if (steps > 1)
+          {
+            ArrayList<String> results = execBatch(services,i,steps);
+            if (results.size() == 0) single = i + steps;
+
+            for (int j = 0; j < results.size(); j++)
+            {
+              cont = "\n";
+              result = results.get(j);
+              if (i + j < services.length() - 1) cont += ",\n";
+              response += result + cont;
+            }
+
+            if (results.size() > 0)
+            {
+              i += results.size() - 1;
+              continue;
+            }
+          }
+        }
+
         boolean connect = false;
         boolean disconn = false;
         JSONObject spload = null;
@@ -417,6 +500,222 @@ public class Rest
   }
 
 
+  private int homogeneous(JSONArray services, int first)
+  {
+    int steps = 1;
+    JSONObject service = services.getJSONObject(first);
+
+    String path = service.getString("path");
+    String sql = batchStatement(service);
+
+    if (sql == null)
+      return(steps);
+
+    String format = dateformat(service.getJSONObject("payload"));
+
+    for (int i = first + 1; i < services.length(); i++)
+    {
+      JSONObject next = services.getJSONObject(i);
+
+      if (!path.equals(next.getString("path")))
+        break;
+
+      if (!sql.equals(batchStatement(next)))
+        break;
+
+      // The batch binds all dates with one format
+      if (!Objects.equals(format,dateformat(next.getJSONObject("payload"))))
+        break;
+
+      steps++;
+    }
+
+    return(steps);
+  }
+
+
+  private String batchStatement(JSONObject service)
+  {
+    if (!service.has("payload"))
+      return(null);
+
+    JSONObject payload = service.getJSONObject("payload");
+
+    if (!payload.has("sql")) return(null);
+    if (payload.has("assert")) return(null);
+    if (payload.optBoolean("lock",false)) return(null);
+    if (payload.optBoolean("returning",false)) return(null);
+
+    return(payload.getString("sql"));
+  }
+
+
+  private String dateformat(JSONObject payload)
+  {
+    if (!payload.has("dateformat")) return(this.dateform);
+    if (payload.isNull("dateformat")) return(null);
+    return(payload.getString("dateformat"));
+  }
+
+
+  private boolean batchable(Request step)
+  {
+    if (!step.cmd.equals("exec"))
+      return(false);
+
+    switch(step.func)
+    {
+      case "merge"  : return(true);
+      case "insert" : return(true);
+      case "update" : return(true);
+      case "delete" : return(true);
+      default       : return(false);
+    }
+  }
+
+
+  private ArrayList<String> execBatch(JSONArray services, int first, int steps)
+  {
+    String sql = null;
+    String format = null;
+    boolean savepoint = false;
+    Request request = this.request;
+    String username = state.session().username();
+
+    ArrayList<String> results = new ArrayList<String>();
+    ArrayList<Request> requests = new ArrayList<Request>();
+
+    ArrayList<ArrayList<BindValue>> rows =
+      new ArrayList<ArrayList<BindValue>>();
+
+    try
+    {
+      state.ensure();
+
+      for (int i = first; i < first + steps; i++)
+      {
+        JSONObject service = services.getJSONObject(i);
+        JSONObject payload = service.getJSONObject("payload");
+
+        try
+        {
+          Request step = new Request(this,service.getString("path"),payload);
+          if (!batchable(step)) break;
+
+          this.request = step;
+
+          // Interceptors run once per step, whether batched or later run on its own
+          if (!intercepted.contains(payload))
+          {
+            if (rewriter != null)
+            {
+              SQLRewriterAPI api = new SQLRewriterAPI(this);
+              rewriter.rewrite(api,username,payload);
+            }
+
+            if (preprocessor != null)
+              preprocessor.process(username,payload);
+
+            intercepted.add(payload);
+          }
+
+          if (payload.has("bindvalues"))
+            this.getBindValues(payload.getJSONArray("bindvalues"));
+
+          SQLParser parser = new SQLParser(bindvalues,getStatement(payload));
+
+          if (sql == null) sql = parser.sql();
+          if (!sql.equals(parser.sql())) break;
+
+          // Interceptors might have changed the format of a step
+          if (requests.size() == 0) format = dateformat(payload);
+          if (!Objects.equals(format,dateformat(payload))) break;
+
+          if (validator != null)
+            validator.validate(username,payload);
+
+          requests.add(step);
+          rows.add(parser.bindvalues());
+        }
+        catch (Throwable e)
+        {
+          // Leave it to the step itself to report the error
+          break;
+        }
+      }
+
+      this.request = request;
+
+      if (rows.size() < 2)
+        return(results);
+
+      state.setSavePoint();
+      savepoint = true;
+
+      state.lock();
+      int[] affected = null;
+
+      try
+      {
+        affected = state.session().executeBatch(sql,rows,format);
+      }
+      finally
+      {
+        state.unlock();
+      }
+
+      invalidate(ResultCache.target(sql));
+
+      for (int i = 0; i < requests.size(); i++)
+      {
+        Request step = requests.get(i);
+
+        try
+        {
+          String sesid = touch();
+          JSONFormatter json = new JSONFormatter();
+
+          json.success(true);
+
+          // The driver may execute the batch without counting each step
+          if (affected[i] == Statement.SUCCESS_NO_INFO) json.add("affected","unknown");
+          else json.add("affected",affected[i]);
+
+          if (sesid != null)
+            json.add("session",sesid);
+
+          json.add("instance",instance);
+          String response = json.toString();
+
+          if (postprocessor != null)
+          {
+            JSONObject rsp = Request.parse(response);
+            postprocessor.process(username,step.payload,rsp);
+            response = rsp.toString(2);
+          }
+
+          results.add(response);
+        }
+        catch (Throwable e)
+        {
+          results.add(error(e,step));
+        }
+      }
+    }
+    catch (Throwable e)
+    {
+      this.request = request;
+      results.clear();
+
+      // Undo the partial batch, and run each step on its own to get the errors right
+      logger.log(Level.FINE,"Batch of "+rows.size()+" steps failed, executing steps one by one",e);
+      if (savepoint) state.session().releaseSavePoint(state.savepoint,true);
+    }
+
+    return(results);
+  }
+
+
   private String script(JSONObject payload)
   {
     Scope scope = null;
@@ -605,6 +904,12 @@ public class Rest
             case "fetch" :
               response = fetch(request.payload); break;
 
+            case "bulk" :
+              response = bulk(request.payload); break;
+
+            case "export" :
+              response = export(request.payload); break;
+
             case "merge" :
               response = update(request.payload,returning); break;
 
@@ -728,11 +1033,52 @@ public class Rest
     if (message != null)
       json.add("cause",message);
 
+    if (ppool != null)
+      poolstate(json,"proxy-pool-state",ppool,null);
+
+    if (fpool != null)
+      poolstate(json,"fixed-pool-state",fpool,null);
+
+    if (replicas != null)
+    {
+      for(Replica replica : replicas.replicas())
+        poolstate(json,replica.pool().type().replace(' ','-')+"-pool-state",replica.pool(),replica);
+    }
+
     json.add("instance",instance);
     return(json.toString());
   }
 
 
+  private void poolstate(JSONFormatter json, String name, Pool pool, Replica replica)
+  {
+    PoolScaler scaler = pool.scaler();
+
+    json.push(name);
+    json.add("size",pool.size());
+    json.add("target",pool.target());
+    json.add("min",pool.min());
+    json.add("max",pool.max());
+    json.add("free",pool.free());
+    json.add("waiting",pool.waiting());
+    json.add("autoscale",scaler.enabled());
+    json.add("borrow-rate",Math.round(scaler.rate()*10)/10.0);
+    json.add("wait-ms",Math.round(scaler.waittime()*10)/10.0);
+    json.add("hold-ms",Math.round(scaler.holdtime()*10)/10.0);
+    json.add("failures",scaler.failures());
+    json.add("circuit",pool.breaker().state().name().toLowerCase());
+
+    if (replica != null)
+    {
+      json.add("healthy",replica.healthy());
+      json.add("lag",replica.lag());
+      json.add("outstanding",replica.outstanding());
+    }
+
+    json.pop();
+  }
+
+
   private String connect(JSONObject payload)
   {
     int timeout = 0;
@@ -986,6 +1332,9 @@ public class Rest
       success = state.session().execute(sql);
       state.unlock();
 
+      if (cache != null)
+        cache.clear();
+
       state.release();
     }
     catch (Throwable e)
@@ -1006,6 +1355,25 @@ public class Rest
 
 
   private String select(JSONObject payload)
+  {
+    Replica replica = replica(payload);
+
+    if (replica == null)
+      return(select(payload,null));
+
+    try
+    {
+      return(select(payload,replica));
+    }
+    finally
+    {
+      replica.done();
+      state.session().setPool(primary);
+    }
+  }
+
+
+  private String select(JSONObject payload, Replica replica)
   {
     if (state.session() == null)
     {
@@ -1013,6 +1381,9 @@ public class Rest
       return(ncerror());
     }
 
+    boolean prepared = false;
+    SingleFlight.Call call = null;
+
     try
     {
       int rows = 0;
@@ -1027,7 +1398,8 @@ public class Rest
       String username = state.session().username();
       HashMap<String,BindValueDef> assertions = null;
 
-      state.ensure();
+      // Postpone connecting, the result might be cached or shared
+      if ((cache == null && flight == null) || rewriter != null) state.ensure();
       sesid = touch();
 
       if (rewriter != null)
@@ -1087,9 +1459,48 @@ public class Rest
       if (validator != null)
         validator.validate(username,payload);
 
+      long generation = 0;
+      String ckey = null;
+      HashSet<String> tables = null;
+
+      if (cacheable(payload,lock,curname,assertions))
+      {
+        ckey = ResultCache.key(username,sql,bindvalues,compact+"",dateform,rows+"",skip+"",describe+"");
+
+        if (cache != null)
+        {
+          tables = ResultCache.tables(sql);
+
+          if (payload.optBoolean("cache",false) || cache.lookup(tables))
+          {
+            String cached = cache.get(ckey);
+            if (cached != null) return(addSession(cached,sesid));
+
+            // Taken before executing, a concurrent modification voids the put
+            generation = cache.generation(tables);
+          }
+          else tables = null;
+        }
+
+        if (flight != null)
+        {
+          call = flight.join(ckey);
+
+          if (!call.leader())
+          {
+            // Wait for the identical request already running
+            String shared = flight.await(call);
+            if (shared != null) return(addSession(shared,sesid));
+            call = null;
+          }
+        }
+      }
+
+      state.ensure();
       state.session().closeCursor(curname);
 
       state.prepare(payload);
+      prepared = true;
 
       state.lock();
       Cursor cursor = state.session().executeQuery(curname,sql,bindvalues,dateform);
@@ -1226,7 +1637,8 @@ public class Rest
       if (cursor.name == null)
         state.session().closeCursor(cursor);
 
-      if (sesid != null)
+      // Shared responses gets the session added when served
+      if (sesid != null && ckey == null)
         json.add("session",sesid);
 
       json.add("instance",instance);
@@ -1239,13 +1651,63 @@ public class Rest
         response = rsp.toString(2);
       }
 
+      if (tables != null)
+        cache.put(ckey,response,tables,generation);
+
+      if (call != null)
+        flight.complete(call,response);
+
+      if (ckey != null)
+        response = addSession(response,sesid);
+
       return(response);
     }
     catch (Throwable e)
     {
+      if (replica != null && retry(e))
+      {
+        // Discard the replica connection and run on the primary
+        replicas.failed(replica,e);
+
+        if (prepared) state.release(e,request);
+        else state.session().release(true);
+
+        state.session().share();
+        state.session().setPool(primary);
+
+        return(select(payload,null));
+      }
+
       failed = true;
       return(state.release(e,request));
     }
+    finally
+    {
+      // Waiting requests will run the statement themselves
+      if (call != null) flight.release(call);
+    }
+  }
+
+
+  /**
+   * Only a lost replica connection is retried on the primary. A cancelled,
+   * timed out or otherwise failing statement would just fail again.
+   */
+  private boolean retry(Throwable err)
+  {
+    if (cancelled)
+      return(false);
+
+    for (Throwable cause = err; cause != null; cause = cause.getCause())
+    {
+      if (cause instanceof SQLTimeoutException)
+        return(false);
+
+      if (cause instanceof SQLException && "57014".equals(((SQLException) cause).getSQLState()))
+        return(false);
+    }
+
+    return(PoolManager.lost(err));
   }
 
 
@@ -1271,14 +1733,18 @@ public class Rest
 
       boolean lock = false;
 
-      if (rewriter != null)
+      // Steps from a failed jdbc batch are already intercepted
+      if (!intercepted.remove(payload))
       {
-        SQLRewriterAPI api = new SQLRewriterAPI(this);
-        rewriter.rewrite(api,username,payload);
-      }
+        if (rewriter != null)
+        {
+          SQLRewriterAPI api = new SQLRewriterAPI(this);
+          rewriter.rewrite(api,username,payload);
+        }
 
-      if (preprocessor != null)
-        preprocessor.process(username,payload);
+        if (preprocessor != null)
+          preprocessor.process(username,payload);
+      }
 
       if (payload.has("lock"))
         lock = payload.getBoolean("lock");
@@ -1355,6 +1821,8 @@ public class Rest
         Cursor cursor = state.session().executeUpdateWithReturnValues(sql,bindvalues,this.bindvalues,dateform);
         state.unlock();
 
+        invalidate(ResultCache.target(sql));
+
         cursor.dateformat = dateform;
         JSONFormatter json = new JSONFormatter();
 
@@ -1397,6 +1865,8 @@ public class Rest
         int rows = state.session().executeUpdate(sql,bindvalues,dateform);
         state.unlock();
 
+        invalidate(ResultCache.target(sql));
+
         state.release();
 
         JSONFormatter json = new JSONFormatter();
@@ -1435,7 +1905,7 @@ public class Rest
   }
 
 
-  private String call(JSONObject payload)
+  private String export(JSONObject payload)
   {
     if (state.session() == null)
     {
@@ -1446,8 +1916,12 @@ public class Rest
     try
     {
       state.ensure();
-      String sesid = touch();
+      touch();
 
+      int fetchsize = 1000;
+      boolean copy = false;
+      boolean header = true;
+      String format = null;
       String dateform = this.dateform;
       String username = state.session().username();
 
@@ -1460,6 +1934,11 @@ public class Rest
       if (preprocessor != null)
         preprocessor.process(username,payload);
 
+      if (payload.has("copy")) copy = payload.getBoolean("copy");
+      if (payload.has("format")) format = payload.getString("format");
+      if (payload.has("header")) header = payload.getBoolean("header");
+      if (payload.has("fetchsize")) fetchsize = payload.getInt("fetchsize");
+
       if (payload.has("dateformat"))
       {
         if (payload.isNull("dateformat")) dateform = null;
@@ -1472,7 +1951,7 @@ public class Rest
       String sql = getStatement(payload);
       if (sql == null) return(error("Attribute \"sql\" is missing"));
 
-      SQLParser parser = new SQLParser(bindvalues,sql,true);
+      SQLParser parser = new SQLParser(bindvalues,sql);
 
       sql = parser.sql();
       ArrayList<BindValue> bindvalues = parser.bindvalues();
@@ -1480,45 +1959,66 @@ public class Rest
       if (validator != null)
         validator.validate(username,payload);
 
-      state.prepare(payload);
+      ExportFormatter.Type type = ExportFormatter.getType(format);
 
-      state.lock();
-      ArrayList<NameValuePair<Object>> values = state.session().executeCall(sql,bindvalues,dateform);
-      state.unlock();
+      // COPY cannot take bindvalues and only formats csv
+      if (type != ExportFormatter.Type.CSV || bindvalues.size() > 0)
+        copy = false;
 
-      state.release();
+      if (DatabaseUtils.getType() != DatabaseType.Postgres)
+        copy = false;
 
-      JSONFormatter json = new JSONFormatter();
+      OutputStream out = stream;
+      BoundedBuffer buffer = null;
 
-      json.success(true);
+      // Without a client to stream to, the export is collected and capped
+      if (out == null)
+      {
+        buffer = new BoundedBuffer(config.getREST().exportlimit);
+        out = buffer;
+      }
 
-      for(NameValuePair<Object> nvp : values)
-        json.add(nvp.getName(),nvp.getValue());
+      this.mimetype = type.mimetype;
+      if (stream != null) stream.setContentType(type.mimetype);
 
-      if (sesid != null)
-        json.add("session",sesid);
+      state.prepare(payload);
 
-      json.add("instance",instance);
-      String response = json.toString();
+      state.lock();
 
-      if (postprocessor != null)
+      try
       {
-        JSONObject rsp = Request.parse(response);
-        postprocessor.process(username,payload,rsp);
-        response = rsp.toString(2);
+        if (copy) state.session().copy(sql,out,header);
+        else state.session().export(sql,bindvalues,dateform,fetchsize,new ExportFormatter(type,out,header));
       }
+      catch (Exception e)
+      {
+        // Not an i/o error on the connection
+        if (buffer != null && buffer.exceeded())
+          throw new Exception("Export exceeds export.limit of "+buffer.limit+" bytes, narrow the query");
 
-      return(response);
+        throw e;
+      }
+      finally
+      {
+        state.unlock();
+      }
+
+      state.release();
+      out.close();
+
+      if (buffer == null) return(null);
+      return(new String(buffer.toByteArray(),"UTF-8"));
     }
     catch (Throwable e)
     {
       failed = true;
+      this.mimetype = null;
       return(state.release(e,request));
     }
   }
 
 
-  private String fetch(JSONObject payload)
+  private String bulk(JSONObject payload)
   {
     if (state.session() == null)
     {
@@ -1528,15 +2028,281 @@ public class Rest
 
     try
     {
-      boolean close = false;
+      state.ensure();
       String sesid = touch();
-      JSONFormatter json = new JSONFormatter();
-      String name = payload.getString("cursor");
 
-      Cursor cursor = state.session().getCursor(name);
-      if (payload.has("close")) close = payload.getBoolean("close");
+      int row = 0;
+      int chunk = 1000;
+      int loaded = 0;
+      boolean cont = false;
+      String username = state.session().username();
+      ArrayList<Object[]> failures = new ArrayList<Object[]>();
 
-      if (cursor == null)
+      if (payload.has("chunk")) chunk = payload.getInt("chunk");
+      if (payload.has("continue")) cont = payload.getBoolean("continue");
+
+      // The interceptors see the load as an ordinary insert
+      String sql = bulkStatement(payload);
+      payload.put("sql",sql);
+
+      if (rewriter != null)
+      {
+        SQLRewriterAPI api = new SQLRewriterAPI(this);
+        rewriter.rewrite(api,username,payload);
+      }
+
+      if (preprocessor != null)
+        preprocessor.process(username,payload);
+
+      // The load is built from table and columns, which the rewriter may change.
+      // Changes to the statement itself cannot be honoured, so they are refused.
+      String load = bulkStatement(payload);
+      String rewritten = payload.optString("sql",null);
+
+      if (!sql.equals(rewritten) && !load.equals(rewritten))
+        throw new Exception("Bulk load cannot run a rewritten statement, only table and columns can be rewritten");
+
+      payload.put("sql",load);
+
+      if (validator != null)
+        validator.validate(username,payload);
+
+      String table = payload.getString("table");
+      String[] columns = bulkColumns(payload);
+      Integer[] types = new Integer[columns.length];
+
+      if (payload.has("types"))
+      {
+        JSONArray tdefs = payload.getJSONArray("types");
+
+        for (int i = 0; i < types.length && i < tdefs.length(); i++)
+          if (!tdefs.isNull(i)) types[i] = SQLTypes.getType(tdefs.getString(i));
+      }
+
+      BulkRows source = new BulkRows(payload,columns,types);
+
+      state.prepare(payload);
+      ArrayList<Object[]> rows = source.next(chunk);
+
+      while (rows.size() > 0)
+      {
+        Savepoint savepoint = null;
+
+        if (cont && !state.session().autocommit())
+          savepoint = state.session().setSavePoint();
+
+        state.lock();
+
+        try
+        {
+          loaded += state.session().bulk(table,columns,types,rows);
+          state.session().releaseSavePoint(savepoint);
+        }
+        catch (Exception e)
+        {
+          if (!cont)
+            throw new Exception("Bulk load failed at row "+row+", "+e.getMessage(),e);
+
+          state.session().releaseSavePoint(savepoint,true);
+          failures.add(new Object[] {row,rows.size(),e.getMessage()});
+          logger.log(Level.WARNING,"Bulk load of rows "+row+"-"+(row+rows.size()-1)+" failed",e);
+        }
+        finally
+        {
+          state.unlock();
+        }
+
+        row += rows.size();
+        rows = source.next(chunk);
+      }
+
+      invalidate(ResultCache.tag(table));
+      state.release();
+
+      int rejected = 0;
+      for(Object[] failure : failures)
+        rejected += (Integer) failure[1];
+
+      JSONFormatter json = new JSONFormatter();
+
+      json.success(true);
+      json.add("loaded",loaded);
+      json.add("failed",rejected);
+
+      if (failures.size() > 0)
+      {
+        json.push("failures",ObjectArray);
+        for(Object[] failure : failures)
+        json.add(new String[] {"row","rows","message"},failure);
+        json.pop();
+      }
+
+      if (sesid != null)
+        json.add("session",sesid);
+
+      json.add("instance",instance);
+      String response = json.toString();
+
+      if (postprocessor != null)
+      {
+        JSONObject rsp = Request.parse(response);
+        postprocessor.process(username,payload,rsp);
+        response = rsp.toString(2);
+      }
+
+      return(response);
+    }
+    catch (Throwable e)
+    {
+      failed = true;
+      return(state.release(e,request));
+    }
+  }
+
+
+  private String bulkStatement(JSONObject payload) throws Exception
+  {
+    String table = payload.getString("table");
+    String[] columns = bulkColumns(payload);
+
+    if (!table.matches("[A-Za-z_][\\w$#]*(\\.[A-Za-z_][\\w$#]*)?"))
+      throw new Exception("Illegal table name '"+table+"'");
+
+    String sql = "insert into "+table+" ("+String.join(",",columns)+") values (";
+
+    for (int i = 0; i < columns.length; i++)
+      sql += (i == 0 ? ":" : ",:") + columns[i];
+
+    return(sql+")");
+  }
+
+
+  private String[] bulkColumns(JSONObject payload) throws Exception
+  {
+    JSONArray cols = payload.getJSONArray("columns");
+    String[] columns = new String[cols.length()];
+
+    if (columns.length == 0)
+      throw new Exception("No columns specified");
+
+    for (int i = 0; i < columns.length; i++)
+    {
+      columns[i] = cols.getString(i);
+
+      if (!columns[i].matches("[A-Za-z_][\\w$#]*"))
+        throw new Exception("Illegal column name '"+columns[i]+"'");
+    }
+
+    return(columns);
+  }
+
+
+  private String call(JSONObject payload)
+  {
+    if (state.session() == null)
+    {
+      failed = true;
+      return(ncerror());
+    }
+
+    try
+    {
+      state.ensure();
+      String sesid = touch();
+
+      String dateform = this.dateform;
+      String username = state.session().username();
+
+      if (rewriter != null)
+      {
+        SQLRewriterAPI api = new SQLRewriterAPI(this);
+        rewriter.rewrite(api,username,payload);
+      }
+
+      if (preprocessor != null)
+        preprocessor.process(username,payload);
+
+      if (payload.has("dateformat"))
+      {
+        if (payload.isNull("dateformat")) dateform = null;
+        else dateform = payload.getString("dateformat");
+      }
+
+      if (payload.has("bindvalues"))
+        this.getBindValues(payload.getJSONArray("bindvalues"));
+
+      String sql = getStatement(payload);
+      if (sql == null) return(error("Attribute \"sql\" is missing"));
+
+      SQLParser parser = new SQLParser(bindvalues,sql,true);
+
+      sql = parser.sql();
+      ArrayList<BindValue> bindvalues = parser.bindvalues();
+
+      if (validator != null)
+        validator.validate(username,payload);
+
+      state.prepare(payload);
+
+      state.lock();
+      ArrayList<NameValuePair<Object>> values = state.session().executeCall(sql,bindvalues,dateform);
+      state.unlock();
+
+      // There is no telling which tables the procedure modified
+      if (!payload.optBoolean("readonly",false))
+        invalidate(ResultCache.ALL);
+
+      state.release();
+
+      JSONFormatter json = new JSONFormatter();
+
+      json.success(true);
+
+      for(NameValuePair<Object> nvp : values)
+        json.add(nvp.getName(),nvp.getValue());
+
+      if (sesid != null)
+        json.add("session",sesid);
+
+      json.add("instance",instance);
+      String response = json.toString();
+
+      if (postprocessor != null)
+      {
+        JSONObject rsp = Request.parse(response);
+        postprocessor.process(username,payload,rsp);
+        response = rsp.toString(2);
+      }
+
+      return(response);
+    }
+    catch (Throwable e)
+    {
+      failed = true;
+      return(state.release(e,request));
+    }
+  }
+
+
+  private String fetch(JSONObject payload)
+  {
+    if (state.session() == null)
+    {
+      failed = true;
+      return(ncerror());
+    }
+
+    try
+    {
+      boolean close = false;
+      String sesid = touch();
+      JSONFormatter json = new JSONFormatter();
+      String name = payload.getString("cursor");
+
+      Cursor cursor = state.session().getCursor(name);
+      if (payload.has("close")) close = payload.getBoolean("close");
+
+      if (cursor == null)
         return(error("Cursor \'"+name+"\' does not exist"));
 
       if (close)
@@ -1606,7 +2372,16 @@ public class Rest
     try
     {
       sesid = touch();
+      ArrayList<String> modified = state.session().modified();
+
       success = state.session().commit();
+
+      // Readers might have cached the data before it was comitted
+      if (cache != null)
+      {
+        for(String table : modified)
+          cache.invalidate(table);
+      }
     }
     catch (Exception e)
     {
@@ -1643,6 +2418,7 @@ public class Rest
     try
     {
       sesid = touch();
+      state.session().modified();
       success = state.session().rollback();
     }
     catch (Exception e)
@@ -1807,6 +2583,86 @@ public class Rest
   }
 
 
+  private Replica replica(JSONObject payload)
+  {
+    Session session = state.session();
+
+    if (replicas == null || session == null)
+      return(null);
+
+    // Only plain reads outside transactions
+    if (payload.optBoolean("lock",false) || payload.has("assert"))
+      return(null);
+
+    if (!session.autocommit() || session.connected() || state.dept > 0)
+      return(null);
+
+    if (session.pool() == null || session.pool() != primary)
+      return(null);
+
+    Replica replica = replicas.route();
+    if (replica != null) session.setPool(replica.pool());
+
+    return(replica);
+  }
+
+
+  private boolean cacheable(JSONObject payload, boolean lock, String curname, HashMap<String,BindValueDef> assertions)
+  {
+    if (cache == null && flight == null) return(false);
+    if (lock || curname != null || assertions != null) return(false);
+
+    // Only read committed data through the pools
+    if (!state.session().autocommit()) return(false);
+    if (state.session().pool() == null) return(false);
+
+    if (payload.has("cache") && !payload.optBoolean("cache",true))
+      return(false);
+
+    return(true);
+  }
+
+
+  private int timeout(JSONObject payload, String username) throws Exception
+  {
+    int limit = config.getDatabase().timeout(username);
+
+    if (payload == null || !payload.has("timeout"))
+      return(limit);
+
+    // The client may lower, but not lift the configured timeout
+    int timeout = payload.getInt("timeout");
+    if (timeout <= 0) return(limit);
+
+    if (limit > 0 && timeout > limit) timeout = limit;
+    return(timeout);
+  }
+
+
+  private void invalidate(String table)
+  {
+    if (cache == null || table == null)
+      return;
+
+    cache.invalidate(table);
+
+    if (!state.session().autocommit())
+      state.session().modified(table);
+  }
+
+
+  private String addSession(String response, String sesid)
+  {
+    if (sesid == null)
+      return(response);
+
+    int pos = response.lastIndexOf('}');
+    String head = response.substring(0,pos).stripTrailing();
+
+    return(head+",\n  \"session\": "+JSONObject.quote(sesid)+"\n}");
+  }
+
+
   public String getStatement(JSONObject payload) throws Exception
   {
     if (!payload.has("sql"))
@@ -2491,7 +3347,7 @@ public class Rest
 
         savepoint = null;
         fatal = session.release(true);
-        rest.server.poolmanager().validate();
+        rest.server.poolmanager().validate(err);
       }
 
       return(rest.error(err,fatal,request));
@@ -2562,6 +3418,148 @@ public class Rest
   }
 
 
+  private static class BoundedBuffer extends ByteArrayOutputStream
+  {
+    private final int limit;
+    private boolean exceeded = false;
+
+    BoundedBuffer(int limit)
+    {
+      this.limit = limit;
+    }
+
+    boolean exceeded()
+    {
+      return(exceeded);
+    }
+
+    @Override
+    public synchronized void write(int b)
+    {
+      check(1);
+      super.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len)
+    {
+      check(len);
+      super.write(b,off,len);
+    }
+
+    private void check(int len)
+    {
+      if (size() + len <= limit) return;
+
+      exceeded = true;
+      throw new IllegalStateException("Export exceeds "+limit+" bytes");
+    }
+  }
+
+
+  private static class BulkRows
+  {
+    private int pos = 0;
+    private final String ndjson;
+    private final JSONArray rows;
+    private final Integer[] types;
+    private final String[] columns;
+
+    BulkRows(JSONObject payload, String[] columns, Integer[] types) throws Exception
+    {
+      this.types = types;
+      this.columns = columns;
+
+      if (payload.has("rows"))
+      {
+        this.ndjson = null;
+        this.rows = payload.getJSONArray("rows");
+      }
+      else if (payload.has("ndjson"))
+      {
+        this.rows = null;
+        this.ndjson = payload.getString("ndjson");
+      }
+      else
+      {
+        throw new Exception("Attribute \"rows\" or \"ndjson\" is missing");
+      }
+    }
+
+    ArrayList<Object[]> next(int max) throws Exception
+    {
+      Object row = null;
+      ArrayList<Object[]> chunk = new ArrayList<Object[]>();
+
+      while(chunk.size() < max && (row = next()) != null)
+        chunk.add(convert(row));
+
+      return(chunk);
+    }
+
+    private Object next()
+    {
+      if (rows != null)
+      {
+        if (pos >= rows.length()) return(null);
+        return(rows.get(pos++));
+      }
+
+      while(pos < ndjson.length())
+      {
+        int end = ndjson.indexOf('\n',pos);
+        if (end < 0) end = ndjson.length();
+
+        String line = ndjson.substring(pos,end).trim();
+        pos = end + 1;
+
+        if (line.length() > 0)
+          return(new JSONTokener(line).nextValue());
+      }
+
+      return(null);
+    }
+
+    private Object[] convert(Object row) throws Exception
+    {
+      Object[] values = new Object[columns.length];
+
+      if (row instanceof JSONArray)
+      {
+        JSONArray list = (JSONArray) row;
+
+        if (list.length() != columns.length)
+          throw new Exception("Row has "+list.length()+" values, expected "+columns.length);
+
+        for (int i = 0; i < values.length; i++)
+          values[i] = list.get(i);
+      }
+      else if (row instanceof JSONObject)
+      {
+        JSONObject record = (JSONObject) row;
+
+        for (int i = 0; i < values.length; i++)
+          values[i] = record.opt(columns[i]);
+      }
+      else
+      {
+        throw new Exception("Rows must be arrays or objects");
+      }
+
+      for (int i = 0; i < values.length; i++)
+      {
+        if (JSONObject.NULL.equals(values[i]))
+          values[i] = null;
+
+        if (types[i] != null && SQLTypes.isDate(types[i]) && values[i] instanceof Number)
+          values[i] = new Timestamp(((Number) values[i]).longValue());
+      }
+
+      return(values);
+    }
+  }
+
+
   private static class StatelessSession
   {
     private long time;
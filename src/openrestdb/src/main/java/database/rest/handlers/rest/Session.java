@@ -22,10 +22,14 @@
 package database.rest.handlers.rest;
 
 import java.util.Map;
+import java.io.OutputStream;
 import java.sql.ResultSet;
 import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.sql.PreparedStatement;
@@ -37,9 +41,12 @@ import database.rest.database.BindValue;
 import database.rest.database.BindValueDef;
 import database.rest.config.DatabaseType;
 import database.rest.database.AuthMethod;
+import database.rest.security.Credentials;
 import java.time.format.DateTimeFormatter;
 import database.rest.database.DatabaseUtils;
 import database.rest.database.NameValuePair;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ConcurrentHashMap;
 import database.rest.database.Database.ReturnValueHandle;
 
@@ -57,6 +64,11 @@ public class Session
   private String secret = null;
   private AuthMethod method = null;
   private Database database = null;
+  private Credentials credentials = null;
+
+  private volatile int timeout = 0;
+  private volatile Statement running = null;
+  private volatile Database loading = null;
 
   private int clients = 0;
   private long touched = System.currentTimeMillis();
@@ -65,8 +77,17 @@ public class Session
   private final ConcurrentHashMap<String,Cursor> cursors =
     new ConcurrentHashMap<String,Cursor>();
 
+  private final HashSet<String> modified = new HashSet<String>();
+
   private final static Logger logger = Logger.getLogger("rest");
 
+  private final static ExecutorService rechecker = Executors.newSingleThreadExecutor((task) ->
+  {
+    Thread thread = new Thread(task,"Credentials recheck");
+    thread.setDaemon(true);
+    return(thread);
+  });
+
 
   public static boolean forcePool(String scope)
   {
@@ -91,6 +112,7 @@ public class Session
     this.username = username;
     this.scope = getScope(scope);
     this.lock = new SessionLock();
+    this.credentials = config.getSecurity().credentials();
     this.guid = SessionManager.register(config,this);
   }
 
@@ -125,6 +147,32 @@ public class Session
   }
 
 
+  public Pool pool()
+  {
+    return(pool);
+  }
+
+
+  public synchronized boolean connected()
+  {
+    return(database != null);
+  }
+
+
+  public synchronized void modified(String table)
+  {
+    modified.add(table);
+  }
+
+
+  public synchronized ArrayList<String> modified()
+  {
+    ArrayList<String> tables = new ArrayList<String>(modified);
+    modified.clear();
+    return(tables);
+  }
+
+
   public void setPool(Pool pool)
   {
     this.pool = pool;
@@ -152,6 +200,11 @@ public class Session
   public synchronized String release(boolean failed)
   {
     clients--;
+    running = null;
+
+    // Whatever failed might have left the connection as someone else
+    if (failed && database != null)
+      database.clearProxyUser();
 
     if (failed && database != null && !database.validate())
     {
@@ -273,21 +326,33 @@ public class Session
       {
         case SSO :
           if (scope == Scope.Dedicated) database = pool.connect();
-          else                          database = pool.getConnection();
+          else                          database = pool.getConnection(pool.token(),username);
 
-          if (pool.proxy()) database.setProxyUser(username);
+          if (pool.proxy()) database.proxyuser(username);
           break;
 
         case Custom :
           if (scope == Scope.Dedicated) database = pool.connect();
-          else                          database = pool.getConnection();
+          else                          database = pool.getConnection(pool.token(),username);
 
-          if (pool.proxy()) database.setProxyUser(username);
+          if (pool.proxy()) database.proxyuser(username);
           break;
 
         case Database :
-          database = DatabaseUtils.getInstance();
-          database.connect(username,secret);
+          // Skip the throwaway connection if recently verified
+          boolean verified = pool != null && credentials != null && credentials.verify(username,secret);
+
+          // Half way through the ttl, confirm the password still works without holding up the login
+          if (verified && credentials.recheck(username))
+            recheck(username,secret);
+
+          if (!verified)
+          {
+            // A wrong password must not evict the one that was verified
+            database = DatabaseUtils.getInstance();
+            database.connect(username,secret);
+            if (credentials != null) credentials.add(username,secret);
+          }
 
           if (pool != null)
           {
@@ -295,12 +360,12 @@ public class Session
             setMethod(AuthMethod.PoolToken);
 
             // Reuse the connection ?
-            if (pool.username().equals(username))
+            if (!verified && pool.username().equals(username))
             {
               database.dangling(true);
               break;
             }
-            else
+            else if (!verified)
             {
               // Or drop it
               database.disconnect();
@@ -313,12 +378,14 @@ public class Session
 
         case PoolToken :
           if (scope == Scope.Dedicated) database = pool.connect(secret);
-          else                          database = pool.getConnection(secret);
+          else                          database = pool.getConnection(secret,username);
 
-          if (pool.proxy()) database.setProxyUser(username);
+          if (pool.proxy()) database.proxyuser(username);
           break;
       }
 
+      database.owner(username,guid);
+
       if (scope != Scope.Dedicated && !keep)
       {
         disconnect(0,false);
@@ -332,9 +399,13 @@ public class Session
     }
     catch (Throwable e)
     {
+      if (database != null)
+        database.clearProxyUser();
+
       database = null;
 
-      if (pool != null)
+      // No point validating while the database is down
+      if (pool != null && pool.breaker().closed())
         pool.validate();
 
       throw e;
@@ -342,6 +413,57 @@ public class Session
   }
 
 
+  private void recheck(String username, String secret)
+  {
+    Credentials credentials = this.credentials;
+
+    rechecker.execute(() ->
+    {
+      Database database = null;
+
+      try
+      {
+        database = DatabaseUtils.getInstance();
+        database.connect(username,secret);
+        credentials.add(username,secret);
+      }
+      catch (Exception e)
+      {
+        // The cached hash matched, but the database no longer accepts the user
+        if (!rejected(e)) credentials.rechecked(username);
+        else credentials.remove(username);
+
+        logger.info("Cached credentials for "+username+" could not be confirmed, "+e.getMessage());
+      }
+      finally
+      {
+        if (database != null) database.disconnect();
+      }
+    });
+  }
+
+
+  private static boolean rejected(Throwable err)
+  {
+    while(err != null)
+    {
+      if (err instanceof SQLException)
+      {
+        int code = ((SQLException) err).getErrorCode();
+        String state = ((SQLException) err).getSQLState();
+
+        // Invalid authorization, or Oracle's invalid logon and locked/expired account
+        if (state != null && state.startsWith("28")) return(true);
+        if (code == 1017 || code == 28000 || code == 28001) return(true);
+      }
+
+      err = err.getCause();
+    }
+
+    return(false);
+  }
+
+
   private synchronized boolean disconnect(int expected, boolean rb)
   {
     if (expected >= 0 && clients != expected)
@@ -464,7 +586,7 @@ public class Session
   public PreparedStatement prepare(String sql, ArrayList<BindValue> bindvalues) throws Exception
   {
     if (bindvalues == null) bindvalues = new ArrayList<BindValue>();
-    PreparedStatement stmt = database.prepare(sql,bindvalues,null);
+    PreparedStatement stmt = track(database.prepare(sql,bindvalues,null));
     return(stmt);
   }
 
@@ -472,7 +594,48 @@ public class Session
   public CallableStatement prepareCall(String sql, ArrayList<BindValue> bindvalues) throws Exception
   {
     if (bindvalues == null) bindvalues = new ArrayList<BindValue>();
-    CallableStatement stmt = database.prepareCall(sql,bindvalues,null);
+    CallableStatement stmt = track(database.prepareCall(sql,bindvalues,null));
+    return(stmt);
+  }
+
+
+  public int timeout()
+  {
+    return(timeout);
+  }
+
+
+  public void timeout(int timeout)
+  {
+    this.timeout = timeout;
+  }
+
+
+  public void cancel()
+  {
+    Statement stmt = running;
+    Database bulk = loading;
+
+    if (stmt == null && bulk == null) return;
+
+    try
+    {
+      if (bulk != null) bulk.cancelBulk();
+      else stmt.cancel();
+
+      logger.info("Statement cancelled for "+username);
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.WARNING,e.getMessage(),e);
+    }
+  }
+
+
+  private <T extends Statement> T track(T stmt) throws Exception
+  {
+    if (timeout > 0) stmt.setQueryTimeout(timeout);
+    running = stmt;
     return(stmt);
   }
 
@@ -485,14 +648,34 @@ public class Session
 
   public int executeUpdate(String sql, ArrayList<BindValue> bindvalues, String dateform) throws Exception
   {
-    PreparedStatement stmt = database.prepare(sql,bindvalues,dateform);
+    PreparedStatement stmt = track(database.prepare(sql,bindvalues,dateform));
     return(database.executeUpdate(stmt));
   }
 
 
+  public int[] executeBatch(String sql, ArrayList<ArrayList<BindValue>> rows, String dateform) throws Exception
+  {
+    PreparedStatement stmt = track(database.prepareBatch(sql,rows,dateform));
+
+    try {return(database.executeBatch(stmt));}
+    finally {stmt.close();}
+  }
+
+
+  public int bulk(String table, String[] columns, Integer[] types, ArrayList<Object[]> rows) throws Exception
+  {
+    running = null;
+    loading = database;
+
+    try {return(database.bulk(table,columns,types,rows,timeout));}
+    finally {loading = null;}
+  }
+
+
   public Cursor executeUpdateWithReturnValues(String sql, ArrayList<BindValue> bindvalues, HashMap<String,BindValueDef> alltypes, String dateform) throws Exception
   {
     ReturnValueHandle hdl = database.prepareWithReturnValues(sql,bindvalues,alltypes,dateform);
+    track(hdl.stmt());
     ResultSet         rset = database.executeUpdateWithReturnValues(hdl.stmt(),dateform);
     return(new Cursor(null,hdl.stmt(),rset,hdl.columns()));
   }
@@ -500,7 +683,7 @@ public class Session
 
   public Cursor executeQuery(String name, String sql, ArrayList<BindValue> bindvalues, String dateform) throws Exception
   {
-    PreparedStatement stmt = database.prepare(sql,bindvalues,dateform);
+    PreparedStatement stmt = track(database.prepare(sql,bindvalues,dateform));
     ResultSet         rset = database.executeQuery(stmt);
 
     Cursor cursor = new Cursor(name,stmt,rset);
@@ -510,6 +693,63 @@ public class Session
   }
 
 
+  public long export(String sql, ArrayList<BindValue> bindvalues, String dateform, int fetchsize, ExportFormatter out) throws Exception
+  {
+    boolean timeconv = false;
+    DateTimeFormatter formatter = null;
+    boolean autocommit = database.getAutoCommit();
+
+    if (dateform != null)
+    {
+      if (dateform.equals("UTC")) timeconv = true;
+      else formatter = DateTimeFormatter.ofPattern(dateform);
+    }
+
+    // Postgres only fetches in portions outside autocommit
+    if (autocommit) database.setAutoCommit(false);
+
+    PreparedStatement stmt = track(database.prepare(sql,bindvalues,dateform));
+
+    try
+    {
+      stmt.setFetchSize(fetchsize);
+      ResultSet rset = database.executeQuery(stmt);
+
+      String[] columns = database.getColumNames(rset);
+      out.columns(columns);
+
+      while(rset.next())
+        out.add(database.fetch(columns.length,rset,timeconv,formatter));
+
+      out.flush();
+      rset.close();
+
+      return(out.rows());
+    }
+    catch (Exception e)
+    {
+      // Typically the client went away, stop the database from producing more rows
+      try {stmt.cancel();}
+      catch (Exception ce) {;}
+
+      throw e;
+    }
+    finally
+    {
+      try {stmt.close();}
+      catch (Exception e) {;}
+
+      if (autocommit) database.setAutoCommit(true);
+    }
+  }
+
+
+  public long copy(String sql, OutputStream out, boolean header) throws Exception
+  {
+    return(database.copyOut(sql,out,header));
+  }
+
+
   public ArrayList<NameValuePair<Object>> executeCall(String sql, ArrayList<BindValue> bindvalues, String dateform) throws Exception
   {
     boolean timeconv = false;
@@ -521,7 +761,7 @@ public class Session
       else formatter = DateTimeFormatter.ofPattern(dateform);
     }
 
-    CallableStatement stmt = database.prepareCall(sql,bindvalues,dateform);
+    CallableStatement stmt = track(database.prepareCall(sql,bindvalues,dateform));
     return(database.execute(stmt,bindvalues,timeconv,formatter));
   }
 
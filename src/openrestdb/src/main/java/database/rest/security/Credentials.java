@@ -0,0 +1,188 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.security;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ *
+ * Remembers recently verified database credentials, so that repeated logins
+ * within the ttl can skip the throwaway connection. Passwords are never stored,
+ * only a salted PBKDF2 hash, and only in memory. Once half the ttl has passed,
+ * the next login is still served from the cache, but is checked against the
+ * database in the background, so a changed or revoked password is noticed
+ * well before the entry expires.
+ *
+ */
+public class Credentials
+{
+  private final long ttl;
+  private volatile long purged = 0;
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final ConcurrentHashMap<String,Entry> entries =
+    new ConcurrentHashMap<String,Entry>();
+
+  private final static int SALT = 16;
+  private final static int LENGTH = 256;
+  private final static int ITERATIONS = 10000;
+  private final static String ALGORITHM = "PBKDF2WithHmacSHA256";
+
+
+  public Credentials(int ttl)
+  {
+    this.ttl = ttl * 1000L;
+  }
+
+
+  public int size()
+  {
+    return(entries.size());
+  }
+
+
+  public boolean verify(String username, String password)
+  {
+    if (username == null || password == null)
+      return(false);
+
+    Entry entry = entries.get(username);
+
+    if (entry == null)
+      return(false);
+
+    if (entry.expires < System.currentTimeMillis())
+    {
+      entries.remove(username,entry);
+      return(false);
+    }
+
+    try
+    {
+      byte[] hash = hash(password,entry.salt);
+      return(MessageDigest.isEqual(hash,entry.hash));
+    }
+    catch (Exception e)
+    {
+      return(false);
+    }
+  }
+
+
+  public void add(String username, String password)
+  {
+    if (username == null || password == null)
+      return;
+
+    long time = System.currentTimeMillis();
+
+    try
+    {
+      byte[] salt = new byte[SALT];
+      random.nextBytes(salt);
+
+      entries.put(username,new Entry(salt,hash(password,salt),time + ttl));
+    }
+    catch (Exception e)
+    {
+      entries.remove(username);
+    }
+
+    if (time - purged > ttl)
+    {
+      purged = time;
+      entries.values().removeIf((entry) -> entry.expires < time);
+    }
+  }
+
+
+  /**
+   * True, once, when the entry is due to be checked against the database.
+   * The caller must either add() the verified credentials or call rechecked().
+   */
+  public boolean recheck(String username)
+  {
+    Entry entry = entries.get(username);
+    if (entry == null) return(false);
+
+    if (entry.expires - System.currentTimeMillis() > ttl / 2)
+      return(false);
+
+    return(entry.recheck.compareAndSet(false,true));
+  }
+
+
+  /**
+   * The check could not be made, allow another attempt.
+   */
+  public void rechecked(String username)
+  {
+    Entry entry = entries.get(username);
+    if (entry != null) entry.recheck.set(false);
+  }
+
+
+  public void remove(String username)
+  {
+    if (username != null)
+      entries.remove(username);
+  }
+
+
+  private static byte[] hash(String password, byte[] salt) throws Exception
+  {
+    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(),salt,ITERATIONS,LENGTH);
+
+    try
+    {
+      return(SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded());
+    }
+    finally
+    {
+      spec.clearPassword();
+    }
+  }
+
+
+  private static class Entry
+  {
+    final long expires;
+    final byte[] salt;
+    final byte[] hash;
+    final AtomicBoolean recheck = new AtomicBoolean(false);
+
+    Entry(byte[] salt, byte[] hash, long expires)
+    {
+      this.salt = salt;
+      this.hash = hash;
+      this.expires = expires;
+    }
+  }
+}
\ No newline at end of file
@@ -21,21 +21,38 @@
 
 package database.rest.servers;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import database.rest.config.Config;
 import database.rest.servers.rest.RESTClient;
-
-
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ *
+ * Picks two random RESTEngines and sends the request to the one with the lowest
+ * cost, outstanding requests weighted by the average response time. An engine
+ * stuck on slow queries thereby gets fewer new requests.
+ * Engines with credits left are preferred. When all are exhausted, the request
+ * queues in the RESTClient until the engine grants a credit. Engines being
+ * drained get no new requests.
+ *
+ */
 class LoadBalancer
 {
-  private int last = -1;
   private final int htsrvs;
   private final int servers;
+  private final int timeout;
   private final RESTClient[] workers;
 
+  private final static int DRAIN = 120000;
+  private final static Logger logger = Logger.getLogger("http");
+
 
   LoadBalancer(Config config) throws Exception
   {
     this.servers = config.getTopology().servers;
+    this.timeout = config.getTopology().timeout;
 
     short htsrvs = 1;
     if (config.getTopology().hot) htsrvs++;
@@ -57,25 +74,111 @@ class LoadBalancer
   }
 
 
-  public RESTClient worker() throws Exception
+  public RESTClient worker()
   {
-    int tries = 0;
-    int next = next();
+    int up = 0;
+    int free = 0;
+    RESTClient[] available = new RESTClient[workers.length];
 
-    while(++tries < 32)
+    // Engines with credits first, the rest after
+    for (int i = 0; i < workers.length; i++)
     {
-      for (int i = 0; i < workers.length; i++)
-      {
-        if (workers[next] != null && workers[next].up())
-          return(workers[next]);
+      RESTClient worker = workers[i];
+      if (worker == null || !worker.up() || worker.draining()) continue;
 
-        next = ++next % workers.length;
+      if (!worker.available()) available[up++] = worker;
+      else
+      {
+        available[up++] = available[free];
+        available[free++] = worker;
       }
+    }
+
+    // Fail fast, the caller reports no engines connected
+    if (up == 0) return(null);
+    if (free > 0) up = free;
+    if (up == 1) return(available[0]);
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+
+    int a = random.nextInt(up);
+    int b = random.nextInt(up - 1);
+    if (b >= a) b++;
 
-      Thread.sleep(250);
+    RESTClient first = available[a];
+    RESTClient second = available[b];
+
+    return(cost(first) <= cost(second) ? first : second);
+  }
+
+
+  /**
+   * Requests waiting for credits, on all engines
+   */
+  public int queued()
+  {
+    int queued = 0;
+
+    for (int i = 0; i < workers.length; i++)
+    {
+      RESTClient worker = workers[i];
+      if (worker != null && worker.up()) queued += worker.queued();
     }
 
-    throw new Exception("No available RESTEngines, bailing out");
+    return(queued);
+  }
+
+
+  /**
+   * Average response time in ms, over the engines currently busy.
+   * The average of an idle engine is not updated, and would stay high.
+   */
+  public int latency()
+  {
+    int up = 0;
+    double latency = 0;
+
+    for (int i = 0; i < workers.length; i++)
+    {
+      RESTClient worker = workers[i];
+      if (worker == null || !worker.up() || worker.outstanding() == 0) continue;
+
+      latency += worker.latency();
+      up++;
+    }
+
+    if (up == 0) return(0);
+    return((int) Math.round(latency/up));
+  }
+
+
+  /**
+   * Drain the engines beyond the target, they stop when done
+   */
+  public void retire(short target)
+  {
+    for (int i = target; i < workers.length; i++)
+    {
+      RESTClient worker = workers[i];
+      if (worker == null || !worker.up() || worker.draining()) continue;
+
+      Thread drainer = new Thread(() ->
+      {
+        try
+        {
+          logger.info("Scaling down, draining RESTServer "+worker.id());
+          worker.drain(timeout > 0 ? timeout : DRAIN);
+        }
+        catch (Exception e)
+        {
+          logger.log(Level.SEVERE,e.getMessage(),e);
+        }
+      });
+
+      drainer.setDaemon(true);
+      drainer.setName("RESTDrainer");
+      drainer.start();
+    }
   }
 
 
@@ -87,13 +190,14 @@ class LoadBalancer
 
   public void deregister(RESTClient client)
   {
-    workers[client.id()-this.htsrvs] = null;
+    // A restarted engine may already have taken the slot
+    if (workers[client.id()-this.htsrvs] == client)
+      workers[client.id()-this.htsrvs] = null;
   }
 
 
-  private synchronized int next()
+  private static double cost(RESTClient worker)
   {
-    last = (++last) % workers.length;
-    return(last);
+    return((worker.outstanding() + 1) * Math.max(worker.latency(),1.0));
   }
 }
\ No newline at end of file
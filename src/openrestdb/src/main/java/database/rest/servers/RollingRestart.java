@@ -0,0 +1,141 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.servers;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import database.rest.config.Config;
+import database.rest.cluster.Cluster;
+import database.rest.control.Process;
+import database.rest.servers.rest.RESTClient;
+
+
+/**
+ *
+ * Restarts the RESTServers one at a time. Each is drained, i.e. gets no new
+ * requests and finishes the running ones, before it stops. The next one is not
+ * touched until the restarted server is connected and has granted credits, so
+ * a configuration or jar update can be rolled out without failing requests.
+ *
+ */
+class RollingRestart extends Thread
+{
+  private final Server server;
+  private final Config config;
+  private final int timeout;
+
+  private final static int POLL = 100;
+  private final static int STARTUP = 120000;
+  private final static Logger logger = Logger.getLogger("internal");
+
+
+  RollingRestart(Server server) throws Exception
+  {
+    this.server = server;
+    this.config = server.config();
+    this.timeout = config.getTopology().timeout;
+
+    this.setDaemon(true);
+    this.setName("RollingRestart");
+  }
+
+
+  @Override
+  public void run()
+  {
+    try
+    {
+      Short[] servers = Cluster.getServers(config);
+      logger.info("Rolling restart of "+servers[1]+" RESTServer(s)");
+
+      for (short id = servers[0]; id < servers[0] + servers[1]; id++)
+        restart(id,servers);
+
+      logger.info("Rolling restart completed");
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.SEVERE,e.getMessage(),e);
+      logger.severe("Rolling restart aborted");
+    }
+  }
+
+
+  private void restart(short id, Short[] servers) throws Exception
+  {
+    RESTClient old = server.worker(id);
+
+    if (old == null || !old.up())
+    {
+      logger.warning("RESTServer "+id+" is not connected, skipped");
+      return;
+    }
+
+    // Someone must take over the requests
+    if (up(servers) < 2)
+      throw new Exception("Rolling restart needs at least 2 running RESTServers");
+
+    logger.info("Draining RESTServer "+id);
+    old.drain(timeout > 0 ? timeout : STARTUP);
+
+    boolean started = false;
+    long deadline = System.currentTimeMillis() + STARTUP;
+
+    while(true)
+    {
+      RESTClient fresh = server.worker(id);
+
+      if (fresh != null && fresh != old && fresh.up() && fresh.credits() > 0)
+        break;
+
+      // The manager may already have started a new one
+      if (!started && !old.up() && !Cluster.isRunning(id))
+      {
+        logger.info("Starting RESTServer "+id);
+        new Process(config).start(Process.Type.rest,id);
+        started = true;
+      }
+
+      if (System.currentTimeMillis() > deadline)
+        throw new Exception("RESTServer "+id+" did not come back within "+(STARTUP/1000)+" secs");
+
+      Thread.sleep(POLL);
+    }
+
+    logger.info("RESTServer "+id+" restarted");
+  }
+
+
+  private int up(Short[] servers)
+  {
+    int up = 0;
+
+    for (short id = servers[0]; id < servers[0] + servers[1]; id++)
+    {
+      RESTClient worker = server.worker(id);
+      if (worker != null && worker.up() && !worker.draining()) up++;
+    }
+
+    return(up);
+  }
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.servers;
+
+import java.util.ArrayList;
+import java.util.logging.Logger;
+import database.rest.config.Config;
+import database.rest.cluster.Cluster;
+import database.rest.config.Topology;
+import database.rest.cluster.Statistics;
+
+
+/**
+ *
+ * Run by the manager on each heartbeat. Adjusts the number of RESTServers
+ * between min-servers and servers, using the queue depth and latency seen by
+ * the HTTPServer and the cpu used, as reported in the cluster statistics.
+ * One server is added when requests queue up for credits or responses are slow,
+ * unless the machine is already busy. One is removed when the load has been low
+ * for a while. The HTTPServer drains the surplus, and ensure starts new ones.
+ *
+ */
+class Scaler
+{
+  private final short min;
+  private final short max;
+  private final short http;
+  private final int credits;
+  private final Topology topology;
+
+  private long quiet = 0;
+  private long changed = 0;
+
+  private final static Logger logger = Logger.getLogger("internal");
+
+
+  Scaler(Config config) throws Exception
+  {
+    this.topology = config.getTopology();
+
+    Short[] servers = Cluster.getServers(config);
+
+    this.http = servers[0];
+    this.max = servers[1];
+    this.min = topology.minservers;
+    this.credits = topology.credits;
+  }
+
+
+  void check(ArrayList<Statistics> stats)
+  {
+    int cpu = 0;
+    int queued = 0;
+    int active = 0;
+    int latency = 0;
+    int running = 0;
+
+    long now = System.currentTimeMillis();
+    short target = Cluster.target();
+
+    for(Statistics stat : stats)
+    {
+      if (!stat.online()) continue;
+
+      cpu += stat.cpuload();
+
+      if (stat.http())
+      {
+        queued += stat.queued();
+        latency = Math.max(latency,stat.latency());
+      }
+      else if (stat.id() < http + target)
+      {
+        running++;
+        active += stat.running();
+      }
+    }
+
+    // Let the previous change settle
+    if (now - changed < topology.cooldown)
+      return;
+
+    boolean slow = topology.scalelatency > 0 && latency >= topology.scalelatency;
+    boolean busy = queued >= topology.scalequeue || slow;
+
+    // More processes will not help on a saturated machine
+    boolean saturated = cpu >= topology.scalecpu * 10;
+
+    if (busy && !saturated && target < max && running >= target)
+    {
+      scale(target,(short) (target + 1),"queued: "+queued+", latency: "+latency+" ms");
+      return;
+    }
+
+    // The running requests would fit in one server less, at half its credits
+    boolean idle = queued == 0 && !slow && cpu < topology.scalecpu * 5
+                   && active <= (target - 1) * credits / 2;
+
+    if (!idle || target <= min)
+    {
+      quiet = 0;
+      return;
+    }
+
+    if (quiet == 0) quiet = now;
+
+    if (now - quiet >= topology.scaleidle)
+      scale(target,(short) (target - 1),"idle for "+((now - quiet)/1000)+" secs");
+  }
+
+
+  private void scale(short from, short to, String reason)
+  {
+    logger.info("Scaling RESTServers from "+from+" to "+to+", "+reason);
+
+    Cluster.target(to);
+
+    this.quiet = 0;
+    this.changed = System.currentTimeMillis();
+  }
+}
\ No newline at end of file
@@ -41,6 +41,7 @@ import database.rest.cluster.ProcessMonitor;
 import database.rest.cluster.PreAuthTable.*;
 import database.rest.servers.http.HTTPServer;
 import database.rest.servers.rest.RESTClient;
+import database.rest.servers.rest.RESTListener;
 import database.rest.servers.rest.RESTServer;
 import database.rest.handlers.file.Deployment;
 import database.rest.cluster.Cluster.ServerType;
@@ -55,6 +56,7 @@ public class Server extends Thread
   private final long started;
   private final short servers;
   private final int heartbeat;
+  private final boolean unix;
   private final Config config;
   private final boolean embedded;
 
@@ -64,6 +66,7 @@ public class Server extends Thread
   private final HTTPServer plain;
   private final HTTPServer admin;
 
+  private final Scaler scaler;
   private final RESTServer rest;
   private final PoolManager pmgr;
   private final SessionManager smgr;
@@ -73,6 +76,8 @@ public class Server extends Thread
 
   private volatile boolean sowner = false;
   private volatile boolean powner = false;
+  private volatile boolean stopped = false;
+  private volatile RollingRestart rolling = null;
 
   private final static Logger logger = Logger.getLogger("internal");
 
@@ -120,7 +125,12 @@ public class Server extends Thread
     this.servers = config.getTopology().servers;
     Process.Type type = Cluster.getType(id);
 
+    // Only the manager acts on it
+    if (config.getTopology().minservers < servers) this.scaler = new Scaler(config);
+    else                                           this.scaler = null;
+
     this.heartbeat = config.getTopology().heartbeat;
+    this.unix = config.getTopology().unix;
 
     if (type == Process.Type.rest)
     {
@@ -219,6 +229,9 @@ public class Server extends Thread
     if (!ProcessMonitor.aquireHTTPLock())
       logger.severe("Could not obtain HTTP Lock");
 
+    if (!embedded && unix)
+      new RESTListener(this).start();
+
     return(true);
   }
 
@@ -339,19 +352,61 @@ public class Server extends Thread
 
   public void shutdown(boolean all)
   {
+    // Otherwise only this server stops
     if (all) Cluster.stop();
+    else     this.stopped = true;
+
     synchronized(this)
     {this.notify();}
   }
 
 
+  /**
+   * Drain and restart the RESTServers one at a time
+   */
+  public synchronized String restart() throws Exception
+  {
+    if (embedded)
+      throw new Exception("No RESTServers to restart in embedded mode");
+
+    if (rolling != null && rolling.isAlive())
+      return("Rolling restart already in progress");
+
+    rolling = new RollingRestart(this);
+    rolling.start();
+
+    return("Rolling restart of "+servers+" RESTServer(s) started");
+  }
+
+
+  public int queued()
+  {
+    if (loadblcr == null) return(0);
+    return(loadblcr.queued());
+  }
+
+
+  public int latency()
+  {
+    if (loadblcr == null) return(0);
+    return(loadblcr.latency());
+  }
+
+
+  public int running()
+  {
+    if (rest == null) return(0);
+    return(rest.running());
+  }
+
+
   public RESTClient worker(short id)
   {
     return(loadblcr.worker(id));
   }
 
 
-  public RESTClient worker() throws Exception
+  public RESTClient worker()
   {
     return(loadblcr.worker());
   }
@@ -442,12 +497,17 @@ public class Server extends Thread
           if (this.sowner)
             Deployment.get().redeploy();
 
-          if (Cluster.stop(this)) break;
+          if (this.sowner && loadblcr != null)
+            loadblcr.retire(Cluster.target());
+
+          if (stopped || Cluster.stop(this)) break;
         }
       }
     }
     catch (Exception e) {logger.log(Level.SEVERE,e.getMessage(),e);}
 
+    if (pmgr != null) pmgr.shutdown();
+
     ThreadPool.shutdown();
     logger.info("Server "+id+" stopped");
   }
@@ -460,9 +520,14 @@ public class Server extends Thread
 
     ArrayList<Statistics> stats = Cluster.getStatistics();
 
+    if (powner && scaler != null)
+      scaler.check(stats);
+
     for(Statistics stat : stats)
     {
       if (stat.id() == this.id) continue;
+      if (Cluster.surplus(stat.id())) continue;
+
       long alive = System.currentTimeMillis() - stat.updated();
 
       if (1.0 * alive > 1.25 * this.heartbeat) ensure = true;
@@ -44,6 +44,8 @@ public class HTTPChannel
   private boolean stayalive;
   private boolean permanent;
   private boolean connected;
+  private volatile boolean eof = false;
+  private volatile HTTPRequest inflight = null;
 
   private final boolean ssl;
   private final boolean admin;
@@ -270,6 +272,30 @@ public class HTTPChannel
   }
 
 
+  boolean eof()
+  {
+    return(eof);
+  }
+
+
+  void inflight(HTTPRequest request)
+  {
+    this.inflight = request;
+  }
+
+
+  void abort()
+  {
+    HTTPRequest request = inflight;
+
+    if (request != null)
+    {
+      inflight = null;
+      request.abort();
+    }
+  }
+
+
   public int attempts()
   {
     return(attempt);
@@ -308,6 +334,7 @@ public class HTTPChannel
 
       if (read <= 0)
       {
+        if (read < 0) eof = true;
         buffers.done();
         return(null);
       }
@@ -324,6 +351,7 @@ public class HTTPChannel
       String msg = e.getMessage();
       if (msg == null) msg = "unknown";
       if (!msg.equals("Connection reset")) throw e;
+      eof = true;
       return(null);
     }
   }
@@ -341,6 +369,7 @@ public class HTTPChannel
 
       if (read <= 0)
       {
+        if (read < 0) eof = true;
         buffers.done();
         return(null);
       }
@@ -365,6 +394,7 @@ public class HTTPChannel
             break;
 
           case CLOSED:
+            eof = true;
             buffers.done();
             return(null);
         }
@@ -0,0 +1,201 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package database.rest.servers.http;
+
+import java.util.Arrays;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ *
+ * Writes a response body directly to the client using chunked transfer encoding.
+ * The header is not sent until the first chunk, so the response can still be
+ * replaced by an ordinary one, as long as nothing has been written.
+ * Behind a RESTServer the chunks are handed to a transport, that relays
+ * them to the HTTPServer holding the client connection.
+ *
+ */
+public class HTTPChunkedStream extends OutputStream
+{
+  private int pos = 0;
+  private boolean closed = false;
+  private boolean started = false;
+
+  private final byte[] buffer;
+  private final HTTPRequest request;
+  private final HTTPResponse response;
+  private final Transport transport;
+
+  private final static byte[] EOL = "\r\n".getBytes();
+  private final static byte[] END = "0\r\n\r\n".getBytes();
+
+
+  public HTTPChunkedStream(HTTPRequest request, HTTPResponse response, int size)
+  {
+    this.request = request;
+    this.response = response;
+    this.transport = null;
+    this.buffer = new byte[size];
+  }
+
+
+  public HTTPChunkedStream(HTTPResponse response, Transport transport, int size)
+  {
+    this.request = null;
+    this.response = response;
+    this.transport = transport;
+    this.buffer = new byte[size];
+  }
+
+
+  public boolean started()
+  {
+    return(started);
+  }
+
+
+  public void setContentType(String mimetype)
+  {
+    response.setContentType(mimetype);
+  }
+
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    if (pos == buffer.length) send();
+    buffer[pos++] = (byte) b;
+  }
+
+
+  @Override
+  public void write(byte[] data, int off, int len) throws IOException
+  {
+    while(len > 0)
+    {
+      if (pos == buffer.length) send();
+
+      int chunk = buffer.length - pos;
+      if (chunk > len) chunk = len;
+
+      System.arraycopy(data,off,buffer,pos,chunk);
+
+      pos += chunk;
+      off += chunk;
+      len -= chunk;
+    }
+  }
+
+
+  @Override
+  public void flush() throws IOException
+  {
+    if (pos > 0) send();
+  }
+
+
+  @Override
+  public void close() throws IOException
+  {
+    if (closed) return;
+
+    flush();
+    closed = true;
+
+    if (!started) start();
+    transmit(END);
+  }
+
+
+  public void abort()
+  {
+    // Closing the connection is the only way to signal a broken chunked response
+    closed = true;
+
+    if (transport != null)
+    {
+      transport.broken();
+      return;
+    }
+
+    try {request.channel().close();}
+    catch (Exception e) {;}
+  }
+
+
+  private void start() throws IOException
+  {
+    started = true;
+    response.setChunked();
+    transmit(response.header().getBytes());
+  }
+
+
+  private void send() throws IOException
+  {
+    if (closed)
+      throw new IOException("Stream closed");
+
+    if (!started) start();
+
+    transmit((Integer.toHexString(pos)+"\r\n").getBytes());
+    transmit(Arrays.copyOf(buffer,pos));
+    transmit(EOL);
+
+    pos = 0;
+  }
+
+
+  private void transmit(byte[] data) throws IOException
+  {
+    if (transport != null)
+    {
+      transport.transmit(data);
+      return;
+    }
+
+    HTTPChannel channel = request.channel();
+
+    if (channel.socket().isClosed() || !channel.channel().isOpen())
+      throw new IOException("Client closed connection");
+
+    try
+    {
+      channel.write(data);
+    }
+    catch (Exception e)
+    {
+      throw new IOException(e.getMessage(),e);
+    }
+
+    if (channel.socket().isClosed() || !channel.channel().isOpen())
+      throw new IOException("Client closed connection");
+  }
+
+
+  public interface Transport
+  {
+    void transmit(byte[] data) throws IOException;
+    void broken();
+  }
+}
\ No newline at end of file
@@ -61,6 +61,9 @@ public class HTTPRequest
 
   private final static String EOL = "\r\n";
   private long touched = System.currentTimeMillis();
+  private volatile Runnable onabort = null;
+  private volatile boolean aborted = false;
+  private volatile HTTPChunkedStream.Transport transport = null;
 
 
   public HTTPRequest(Server server, String host, byte[] data) throws Exception
@@ -184,6 +187,27 @@ public class HTTPRequest
     channel.write(data);
   }
 
+  public void onabort(Runnable action)
+  {
+    this.onabort = action;
+    if (aborted && action != null) abort();
+  }
+
+  public boolean aborted()
+  {
+    return(aborted);
+  }
+
+  public void abort()
+  {
+    aborted = true;
+    Runnable action = onabort;
+    onabort = null;
+
+    if (action != null)
+      action.run();
+  }
+
   public SelectionKey key()
   {
     return(key);
@@ -211,6 +235,18 @@ public class HTTPRequest
   }
 
 
+  public HTTPChunkedStream.Transport transport()
+  {
+    return(transport);
+  }
+
+
+  public void transport(HTTPChunkedStream.Transport transport)
+  {
+    this.transport = transport;
+  }
+
+
   void parse()
   {
     if (parsed) return;
@@ -33,6 +33,7 @@ public class HTTPResponse
   private String header;
   private String response;
   private String mimetype;
+  private boolean chunked;
   private boolean finished;
   private static int timeout;
 
@@ -88,7 +89,9 @@ public class HTTPResponse
       mimetype = "text/plain";
 
     setHeader("Content-Type",mimetype);
-    setHeader("Content-Length",body.length);
+
+    if (chunked) setHeader("Transfer-Encoding","chunked");
+    else         setHeader("Content-Length",body.length);
 
     if (this.response == null) setResponse(200);
   }
@@ -106,6 +109,12 @@ public class HTTPResponse
   }
 
 
+  public void setChunked()
+  {
+    this.chunked = true;
+  }
+
+
   public void setLastModified()
   {
     setLastModified(new Date());
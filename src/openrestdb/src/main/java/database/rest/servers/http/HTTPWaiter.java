@@ -163,6 +163,9 @@ class HTTPWaiter extends Thread
 
             if (buf == null)
             {
+              // The client went away, stop working on its behalf
+              if (client.eof()) client.abort();
+
               if (client.attempts() > 8)
               {
                 key.cancel();
@@ -54,6 +54,7 @@ public class HTTPWorker implements Runnable
   {
     try
     {
+      channel.inflight(request);
       request.parse();
       String path = request.path();
       String method = request.method();
@@ -114,6 +115,7 @@ public class HTTPWorker implements Runnable
     }
     finally
     {
+      this.channel.inflight(null);
       this.channel.stayalive(false);
     }
   }
@@ -23,13 +23,23 @@ package database.rest.servers.rest;
 
 import java.util.ArrayList;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.logging.Logger;
 import database.rest.config.Config;
 import database.rest.servers.Server;
 import database.rest.cluster.MailBox;
+import database.rest.cluster.RingBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.GatheringByteChannel;
 import database.rest.servers.http.HTTPChannel;
+import java.util.concurrent.TimeUnit;
+import database.rest.servers.http.HTTPRequest;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class RESTClient implements RESTConnection
@@ -39,14 +49,30 @@ public class RESTClient implements RESTConnection
 
   private RESTWriter writer;
   private RESTReader reader;
-  private HTTPChannel rchannel;
-  private HTTPChannel wchannel;
+  private RESTSocket rchannel;
+  private RESTSocket wchannel;
   private volatile boolean up = false;
 
   private final Config config;
   private final Server server;
   private final MailBox mailbox;
-  private final ConcurrentHashMap<Long,RESTComm> incoming;
+  private final int timeout;
+  private final boolean shm;
+  private final AtomicLong next = new AtomicLong(0);
+  private final AtomicInteger outstanding = new AtomicInteger(0);
+
+  private int credits = 0;
+  private int inuse = 0;
+  private int queued = 0;
+  private final Object gate = new Object();
+
+  private volatile boolean draining = false;
+  private final CompletableFuture<Void> drained = new CompletableFuture<Void>();
+
+  private double latency = 0;
+  private final static double ALPHA = 0.2;
+  private final ConcurrentHashMap<Long,CompletableFuture<RESTComm>> pending;
+  private final ConcurrentHashMap<Long,LinkedBlockingQueue<RESTComm>> streams;
 
   private final static Logger logger = Logger.getLogger("http");
 
@@ -60,7 +86,11 @@ public class RESTClient implements RESTConnection
     this.server = server;
     this.config = server.config();
     this.mailbox = new MailBox(config,id);
-    this.incoming = new ConcurrentHashMap<Long,RESTComm>();
+    this.mailbox.reset();
+    this.timeout = config.getTopology().timeout;
+    this.shm = config.getTopology().shm;
+    this.pending = new ConcurrentHashMap<Long,CompletableFuture<RESTComm>>();
+    this.streams = new ConcurrentHashMap<Long,LinkedBlockingQueue<RESTComm>>();
   }
 
 
@@ -74,7 +104,30 @@ public class RESTClient implements RESTConnection
     }
 
     channel.configureBlocking(true);
+    init(new RESTSocket(channel));
+  }
+
+
+  public synchronized void init(SocketChannel channel) throws Exception
+  {
+    channel.configureBlocking(true);
+
+    if (!shm)
+    {
+      init(new RESTSocket(channel));
+      return;
+    }
+
+    // The first channel carries requests, the second responses
+    RingBuffer ring = new RingBuffer(config,id,wchannel == null);
 
+    ring.reset();
+    init(new RESTSocket(channel,ring));
+  }
+
+
+  private synchronized void init(RESTSocket channel) throws Exception
+  {
     if (this.wchannel == null) this.wchannel = channel;
     else                       this.rchannel = channel;
 
@@ -83,6 +136,9 @@ public class RESTClient implements RESTConnection
       this.writer = new RESTWriter(this);
       this.reader = new RESTReader(this);
 
+      // No requests until the RESTServer grants credits
+      synchronized(gate) {credits = 0;}
+
       this.up = true;
       this.writer.start();
       this.reader.start();
@@ -94,36 +150,340 @@ public class RESTClient implements RESTConnection
 
   public byte[] send(String host, byte[] data) throws Exception
   {
-    long id = thread();
-    int extend = mailbox.write(id,data);
-    writer.write(new RESTComm(id,extend,host.getBytes(),data));
+    return(send(host,data,null));
+  }
+
+
+  public byte[] send(String host, byte[] data, HTTPRequest request) throws Exception
+  {
+    int extend = -1;
+    boolean granted = false;
+    boolean answered = false;
+
+    long id = next.incrementAndGet();
+    CompletableFuture<RESTComm> response = new CompletableFuture<RESTComm>();
+
+    pending.put(id,response);
 
-    RESTComm resp = null;
+    // Streamed responses are relayed chunk by chunk to the client
+    LinkedBlockingQueue<RESTComm> chunks = null;
 
-    synchronized(this)
+    if (request != null && request.channel() != null)
     {
-      while(true)
+      chunks = new LinkedBlockingQueue<RESTComm>();
+      streams.put(id,chunks);
+    }
+
+    long start = System.nanoTime();
+    outstanding.incrementAndGet();
+
+    // Cancel the request in the RESTEngine if the client goes away
+    if (request != null) request.onabort(() -> cancel(id));
+
+    try
+    {
+      if (!up) throw new Exception("Lost connection to RESTServer");
+
+      // The ring buffers carry the payload inline
+      if (!shm) extend = mailbox.write(id,data);
+
+      if (!acquire(new RESTComm(id,extend,host.getBytes(),data)))
       {
-        resp = incoming.get(id);
+        // The RESTServer is being drained, hand over to another one
+        RESTClient other = server.worker();
 
-        if (resp != null) break;
-        if (!up) throw new Exception("Lost connection to RESTServer");
+        if (other == null || other == this)
+          throw new Exception("RESTServer "+this.id+" is draining");
 
-        this.wait();
+        return(other.send(host,data,request));
       }
+
+      granted = true;
+
+      boolean streamed = false;
+      if (chunks != null) streamed = relay(id,chunks,request);
+
+      RESTComm resp = await(id,response);
+      answered = true;
+
+      // The body has already been written to the client
+      if (streamed) return(null);
+
+      if (resp.extend() < 0) data = resp.page();
+      else data = mailbox.read(extend,resp.size);
+
+      return(data);
     }
+    finally
+    {
+      pending.remove(id);
+      if (chunks != null) streams.remove(id);
 
-    if (resp.extend() < 0) data = resp.page();
-    else data = mailbox.read(extend,resp.size);
+      if (granted) release();
+      outstanding.decrementAndGet();
+      if (answered) sample(System.nanoTime() - start);
 
-    if (extend >= 0) mailbox.clear(extend);
-    return(data);
+      if (request != null) request.onabort(null);
+
+      // A late response still owns the extend, it is cleared on arrival
+      if (extend >= 0 && (answered || !granted)) mailbox.clear(extend);
+    }
+  }
+
+
+  public boolean available()
+  {
+    synchronized(gate)
+    {
+      return(inuse < credits);
+    }
   }
 
 
-  private long thread()
+  public boolean draining()
   {
-    return(Thread.currentThread().getId());
+    return(draining);
+  }
+
+
+  /**
+   * Stops sending requests to the RESTServer, and waits until
+   * it has finished the ones already sent.
+   */
+  public void drain(int timeout) throws Exception
+  {
+    synchronized(gate)
+    {
+      draining = true;
+      writer.write(new RESTComm(0,RESTComm.DRAIN,new byte[0],new byte[0]));
+      gate.notifyAll();
+    }
+
+    try
+    {
+      drained.get(timeout,TimeUnit.MILLISECONDS);
+    }
+    catch (TimeoutException e)
+    {
+      throw new Exception("RESTServer "+id+" not drained within "+(timeout/1000)+" secs");
+    }
+    catch (ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) throw (Exception) cause;
+      throw e;
+    }
+  }
+
+
+  public int credits()
+  {
+    synchronized(gate)
+    {
+      return(credits);
+    }
+  }
+
+
+  public int queued()
+  {
+    synchronized(gate)
+    {
+      return(queued);
+    }
+  }
+
+
+  /**
+   * Takes a credit and queues the call. Done under the gate,
+   * so no call can be queued after a drain request.
+   */
+  private boolean acquire(RESTComm call) throws Exception
+  {
+    long deadline = System.currentTimeMillis() + timeout;
+
+    synchronized(gate)
+    {
+      queued++;
+
+      try
+      {
+        while(!draining && inuse >= credits)
+        {
+          if (!up) throw new Exception("Lost connection to RESTServer");
+
+          if (timeout <= 0)
+          {
+            gate.wait();
+            continue;
+          }
+
+          long wait = deadline - System.currentTimeMillis();
+
+          if (wait <= 0)
+            throw new Exception("No credits from RESTServer within "+(timeout/1000)+" secs");
+
+          gate.wait(wait);
+        }
+
+        if (draining)
+          return(false);
+
+        inuse++;
+        writer.write(call);
+
+        return(true);
+      }
+      finally
+      {
+        queued--;
+      }
+    }
+  }
+
+
+  private void release()
+  {
+    synchronized(gate)
+    {
+      inuse--;
+      gate.notify();
+    }
+  }
+
+
+  private void credit(int credits)
+  {
+    synchronized(gate)
+    {
+      this.credits = credits;
+      gate.notifyAll();
+    }
+
+    logger.fine("RESTServer "+id+" granted "+credits+" credits");
+  }
+
+
+  public int outstanding()
+  {
+    return(outstanding.get());
+  }
+
+
+  public synchronized double latency()
+  {
+    return(latency);
+  }
+
+
+  private synchronized void sample(long nanos)
+  {
+    double ms = nanos / 1000000.0;
+
+    if (latency == 0) latency = ms;
+    else latency += ALPHA * (ms - latency);
+  }
+
+
+  public void cancel(long id)
+  {
+    if (!up) return;
+    writer.write(new RESTComm(id,RESTComm.CANCEL,new byte[0],new byte[0]));
+  }
+
+
+  /**
+   * Writes streamed chunks to the client until the final response arrives.
+   * Each chunk is acknowledged once written, which lets the RESTServer send
+   * another. Returns whether anything was streamed.
+   */
+  private boolean relay(long id, LinkedBlockingQueue<RESTComm> chunks, HTTPRequest request) throws Exception
+  {
+    boolean broken = false;
+    boolean streamed = false;
+
+    while(true)
+    {
+      RESTComm chunk = null;
+
+      if (timeout <= 0) chunk = chunks.take();
+      else chunk = chunks.poll(timeout,TimeUnit.MILLISECONDS);
+
+      if (chunk == null)
+      {
+        cancel(id);
+        if (streamed) drop(request);
+        throw new Exception("No response from RESTServer within "+(timeout/1000)+" secs");
+      }
+
+      // Lost the RESTServer halfway through
+      if (chunk.extend() == RESTComm.CANCEL && streamed)
+        drop(request);
+
+      if (chunk.extend() != RESTComm.STREAM)
+        return(streamed);
+
+      streamed = true;
+
+      // An empty chunk means the RESTServer gave up halfway through
+      if (!broken && chunk.size == 0)
+      {
+        broken = true;
+        drop(request);
+      }
+
+      if (!broken)
+      {
+        try
+        {
+          request.channel().write(chunk.page());
+        }
+        catch (Exception e)
+        {
+          broken = true;
+          cancel(id);
+          drop(request);
+        }
+      }
+
+      ack(id);
+    }
+  }
+
+
+  private void drop(HTTPRequest request)
+  {
+    // Closing the connection is the only way to signal a broken chunked response
+    try {request.channel().close();}
+    catch (Exception e) {;}
+  }
+
+
+  private void ack(long id)
+  {
+    if (!up) return;
+    writer.write(new RESTComm(id,RESTComm.ACK,new byte[0],new byte[0]));
+  }
+
+
+  private RESTComm await(long id, CompletableFuture<RESTComm> response) throws Exception
+  {
+    try
+    {
+      if (timeout <= 0) return(response.get());
+      return(response.get(timeout,TimeUnit.MILLISECONDS));
+    }
+    catch (TimeoutException e)
+    {
+      cancel(id);
+      throw new Exception("No response from RESTServer within "+(timeout/1000)+" secs");
+    }
+    catch (ExecutionException e)
+    {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) throw (Exception) cause;
+      throw e;
+    }
   }
 
 
@@ -164,6 +524,18 @@ public class RESTClient implements RESTConnection
   public void failed()
   {
     this.up = false;
+
+    Exception lost = new Exception("Lost connection to RESTServer");
+    for(CompletableFuture<RESTComm> response : pending.values())
+      response.completeExceptionally(lost);
+
+    // Wake up relays, they find the failed response
+    for(LinkedBlockingQueue<RESTComm> chunks : streams.values())
+      chunks.offer(new RESTComm(0,RESTComm.CANCEL,new byte[0],new byte[0]));
+
+    synchronized(gate) {gate.notifyAll();}
+    drained.completeExceptionally(lost);
+
     server.deregister(this);
     logger.severe("RESTClient failed, bailing out");
   }
@@ -177,20 +549,51 @@ public class RESTClient implements RESTConnection
   @Override
   public InputStream reader() throws Exception
   {
-    return(rchannel.socket().getInputStream());
+    return(rchannel.reader());
   }
 
   @Override
-  public OutputStream writer() throws Exception
+  public GatheringByteChannel writer() throws Exception
   {
-    return(wchannel.socket().getOutputStream());
+    return(wchannel.writer());
   }
 
   @Override
   public void received(ArrayList<RESTComm> calls)
   {
     logger.fine("Client Received "+calls.size()+" response(s)");
-    for(RESTComm call : calls) incoming.put(call.id,call);
-    synchronized(this) {this.notifyAll();}
+
+    for(RESTComm call : calls)
+    {
+      if (call.extend() == RESTComm.CREDIT)
+      {
+        credit((int) call.id);
+        continue;
+      }
+
+      if (call.extend() == RESTComm.DRAIN)
+      {
+        drained.complete(null);
+        continue;
+      }
+
+      LinkedBlockingQueue<RESTComm> chunks = streams.get(call.id);
+
+      if (call.extend() == RESTComm.STREAM)
+      {
+        // Nobody to pass the chunk on to, stop the export
+        if (chunks != null) chunks.offer(call);
+        else cancel(call.id);
+        continue;
+      }
+
+      CompletableFuture<RESTComm> response = pending.get(call.id);
+
+      if (response != null) response.complete(call);
+      else if (call.extend() >= 0) mailbox.clear(call.extend());
+
+      // The final response ends the stream, after any chunks queued before it
+      if (chunks != null) chunks.offer(call);
+    }
   }
 }
\ No newline at end of file
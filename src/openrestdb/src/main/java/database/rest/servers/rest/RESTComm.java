@@ -31,13 +31,16 @@ class RESTComm
   final short hsize;
   final int   extend;
 
-  byte[] http;
   byte[] page;
   byte[] host;
   byte[] header;
 
+  public final static int CANCEL = -2;
+  public final static int CREDIT = -3;
+  public final static int DRAIN = -4;
+  public final static int STREAM = -5;
+  public final static int ACK = -6;
   public final static int HEADER = 18;
-  private final ByteBuffer buffer = ByteBuffer.allocate(HEADER);
 
 
   RESTComm(long id, int extend, byte[] host, byte[] page)
@@ -49,40 +52,26 @@ class RESTComm
     this.size = page.length;
     this.hsize = (short) host.length;
 
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER);
+
     buffer.putLong(id);
     buffer.putInt(extend);
     buffer.putShort(hsize);
     buffer.putInt(size);
 
     this.header = buffer.array();
-
-    if (extend >= 0)
-    {
-      http = new byte[HEADER + hsize];
-      System.arraycopy(header,0,http,0,HEADER);
-      System.arraycopy(host,0,http,HEADER,hsize);
-    }
-    else
-    {
-      http = new byte[HEADER + hsize + size];
-      System.arraycopy(header,0,http,0,HEADER);
-      System.arraycopy(host,0,http,HEADER,hsize);
-      System.arraycopy(page,0,http,HEADER+hsize,size);
-    }
   }
 
 
   RESTComm(byte[] head)
   {
-    buffer.put(head);
-    buffer.flip();
+    ByteBuffer buffer = ByteBuffer.wrap(head);
 
     this.id     = buffer.getLong();
     this.extend = buffer.getInt();
     this.hsize  = buffer.getShort();
     this.size   = buffer.getInt();
 
-    this.http = null;
     this.page = null;
     this.header = head;
   }
@@ -114,6 +103,10 @@ class RESTComm
 
   int need()
   {
+    if (extend == CANCEL) return(0);
+    if (extend == CREDIT) return(0);
+    if (extend == DRAIN) return(0);
+    if (extend == ACK) return(0);
     if (extend < 0) return(size);
     return(0);
   }
@@ -137,26 +130,23 @@ class RESTComm
   }
 
 
-  byte[] bytes()
+  int length()
+  {
+    if (extend >= 0) return(HEADER + hsize);
+    return(HEADER + hsize + size);
+  }
+
+
+  /**
+   * Views of header, host and, when inline, page for a gathering write.
+   * Nothing is copied, the frame is assembled by the kernel.
+   */
+  int buffers(ByteBuffer[] buffers, int pos)
   {
-    if (http == null)
-    {
-      if (extend >= 0)
-      {
-        http = new byte[HEADER + hsize];
-        System.arraycopy(header,0,http,0,HEADER);
-        System.arraycopy(host,0,http,HEADER,hsize);
-      }
-      else
-      {
-        http = new byte[HEADER + hsize + size];
-        System.arraycopy(header,0,http,0,HEADER);
-        System.arraycopy(host,0,http,HEADER,hsize);
-        System.arraycopy(page,0,http,HEADER+hsize,size);
-      }
-    }
-
-    return(http);
+    buffers[pos++] = ByteBuffer.wrap(header);
+    if (hsize > 0) buffers[pos++] = ByteBuffer.wrap(host);
+    if (extend < 0 && size > 0) buffers[pos++] = ByteBuffer.wrap(page);
+    return(pos);
   }
 
 
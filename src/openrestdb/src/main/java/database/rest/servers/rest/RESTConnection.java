@@ -23,8 +23,8 @@ package database.rest.servers.rest;
 
 import java.util.ArrayList;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.logging.Logger;
+import java.nio.channels.GatheringByteChannel;
 
 
 interface RESTConnection
@@ -34,6 +34,6 @@ interface RESTConnection
   String parent();
   boolean connected();
   InputStream reader() throws Exception;
-  OutputStream writer() throws Exception;
+  GatheringByteChannel writer() throws Exception;
   void received(ArrayList<RESTComm> calls);
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.servers.rest;
+
+import java.io.File;
+import java.util.Set;
+import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import database.rest.config.Paths;
+import database.rest.servers.Server;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.attribute.PosixFilePermission;
+
+
+/**
+ *
+ * Accepts RESTServer connections on a unix domain socket in the ipc directory.
+ * Started by the HTTPServer that owns the admin port, when the ipc transport is unix or shm.
+ * Each RESTServer connects twice, one channel for each direction.
+ *
+ */
+public class RESTListener extends Thread
+{
+  private final Server server;
+  private boolean shm = false;
+
+  public final static int HELLO = 10;
+  private final static Logger logger = Logger.getLogger("http");
+
+
+  public RESTListener(Server server)
+  {
+    this.server = server;
+
+    this.setDaemon(true);
+    this.setName("RESTListener");
+  }
+
+
+  public static String path()
+  {
+    return(Paths.ipcdir + File.separator + "rest.sock");
+  }
+
+
+  @Override
+  public void run()
+  {
+    try
+    {
+      this.shm = server.config().getTopology().shm;
+      Path path = java.nio.file.Paths.get(path());
+
+      // Left behind by a previous HTTPServer, we own the admin port now
+      Files.deleteIfExists(path);
+
+      ServerSocketChannel listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      listener.bind(UnixDomainSocketAddress.of(path));
+
+      if (!System.getProperty("os.name").startsWith("Windows"))
+      {
+        Set<PosixFilePermission> perms = new HashSet<>();
+        perms.add(PosixFilePermission.OWNER_READ);
+        perms.add(PosixFilePermission.OWNER_WRITE);
+        Files.setPosixFilePermissions(path,perms);
+      }
+
+      logger.info("Listening for RESTServers on "+path);
+
+      while(true)
+      {
+        SocketChannel channel = listener.accept();
+
+        try
+        {
+          accept(channel);
+        }
+        catch (Exception e)
+        {
+          logger.log(Level.WARNING,e.getMessage(),e);
+          try {channel.close();} catch (Exception c) {;}
+        }
+      }
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.SEVERE,e.getMessage(),e);
+    }
+  }
+
+
+  private void accept(SocketChannel channel) throws Exception
+  {
+    ByteBuffer hello = ByteBuffer.allocate(HELLO);
+
+    while(hello.hasRemaining())
+    {
+      if (channel.read(hello) < 0)
+        throw new Exception("RESTServer hung up during connect");
+    }
+
+    hello.flip();
+
+    short id = hello.getShort();
+    long started = hello.getLong();
+
+    RESTClient worker = server.worker(id);
+
+    if (worker == null) logger.info("RESTServer connecting");
+    else logger.fine("RESTServer connecting secondary channel");
+
+    if (worker == null || started != worker.started())
+      worker = new RESTClient(server,id,started);
+
+    server.register(worker);
+
+    hello.clear();
+    hello.putShort(server.id());
+    hello.putLong(server.started());
+    hello.flip();
+
+    // Ring buffers must be reset before the RESTServer is told to use them
+    if (shm) worker.init(channel);
+
+    while(hello.hasRemaining())
+      channel.write(hello);
+
+    if (!shm) worker.init(channel);
+  }
+}
\ No newline at end of file
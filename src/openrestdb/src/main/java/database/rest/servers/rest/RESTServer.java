@@ -24,38 +24,61 @@ package database.rest.servers.rest;
 import java.util.Arrays;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.Files;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.file.WatchKey;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import database.rest.config.Config;
 import database.rest.servers.Server;
 import database.rest.cluster.MailBox;
+import database.rest.cluster.Cluster;
+import database.rest.cluster.RingBuffer;
 import database.rest.pools.ThreadPool;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.GatheringByteChannel;
 import database.rest.client.HTTPRequest;
 import database.rest.client.HTTPResponse;
 import database.rest.servers.http.HTTPChannel;
 import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class RESTServer implements RESTConnection
 {
   private RESTReader reader = null;
   private RESTWriter writer = null;
-  private HTTPChannel rchannel = null;
-  private HTTPChannel wchannel = null;
+  private RESTSocket rchannel = null;
+  private RESTSocket wchannel = null;
   private volatile byte[] httpid = null;
 
   private ByteBuffer buffer = ByteBuffer.allocate(10);
 
   private final int port;
   private final short rid;
+  private final short htsrvs;
+  private final int credits;
+  private final boolean shm;
+  private final boolean unix;
   private final Server server;
   private final Config config;
   private final MailBox mailbox;
   private final ThreadPool workers;
 
+  private final ConcurrentHashMap<Long,RESTWorker> running =
+    new ConcurrentHashMap<Long,RESTWorker>();
+
+  private final static int RETRY = 10;
+  private final static int MAXWAIT = 250;
+  private final static int MISSING = 64000;
   private final static Logger logger = Logger.getLogger("rest");
 
 
@@ -64,6 +87,9 @@ public class RESTServer implements RESTConnection
     this.server = server;
     this.config = server.config();
     this.mailbox = new MailBox(config,server.id());
+    this.shm = config.getTopology().shm;
+    this.unix = config.getTopology().unix;
+    this.credits = config.getTopology().credits;
 
     logger.info("RESTServer starting ...");
 
@@ -71,6 +97,7 @@ public class RESTServer implements RESTConnection
     this.port = config.getPorts().admin;
     if (config.getTopology().hot) http++;
 
+    this.htsrvs = (short) http;
     this.rid = (short) (server.id() - http);
     this.workers = new ThreadPool(config.getTopology().workers);
 
@@ -84,10 +111,10 @@ public class RESTServer implements RESTConnection
     {
       byte[] data = response.page();
 
-      if (mailbox.fits(data))
+      // The request chain is extended as needed
+      if (mailbox.write(response.extend(),data))
       {
         response.set(null);
-        mailbox.write(response.extend(),data);
       }
       else
       {
@@ -100,6 +127,68 @@ public class RESTServer implements RESTConnection
   }
 
 
+  /**
+   * Advertise how many concurrent requests this server accepts.
+   * The HTTPServer queues anything beyond that on its side.
+   */
+  public void credits(int credits)
+  {
+    logger.fine("RESTServer grants "+credits+" credits");
+    writer.write(new RESTComm(credits,RESTComm.CREDIT,new byte[0],new byte[0]));
+  }
+
+
+  public int running()
+  {
+    return(running.size());
+  }
+
+
+  void done(RESTWorker worker)
+  {
+    running.remove(worker.id(),worker);
+    synchronized(running) {running.notifyAll();}
+  }
+
+
+  /**
+   * Stop taking new requests, finish the running ones,
+   * tell the HTTPServer and stop this server.
+   */
+  private void drain()
+  {
+    Thread drainer = new Thread(() ->
+    {
+      logger.info("RESTServer draining "+running.size()+" request(s)");
+
+      try
+      {
+        credits(0);
+
+        synchronized(running)
+        {
+          while(!running.isEmpty())
+            running.wait(250);
+        }
+
+        writer.write(new RESTComm(0,RESTComm.DRAIN,new byte[0],new byte[0]));
+        writer.flush();
+      }
+      catch (Exception e)
+      {
+        logger.log(Level.SEVERE,e.getMessage(),e);
+      }
+
+      logger.info("RESTServer drained");
+      server.shutdown(false);
+    });
+
+    drainer.setDaemon(true);
+    drainer.setName("RESTDrainer");
+    drainer.start();
+  }
+
+
   public Server server()
   {
     return(server);
@@ -123,15 +212,22 @@ public class RESTServer implements RESTConnection
   private void serve()
   {
     int tries = 0;
+    long missing = 0;
 
     if (reader == null) logger.info("RESTServer connecting ...");
     else                logger.info("RESTServer reconnecting ...");
 
     while(!connect())
     {
-      if (++tries > 256)
+      tries++;
+
+      // An HTTPServer that is alive will open its listener, wait for it
+      if (httpserver()) missing = 0;
+      else if (missing == 0) missing = System.currentTimeMillis();
+
+      if (missing > 0 && System.currentTimeMillis() - missing > MISSING)
       {
-        logger.severe("Unable to connect to HTTPServer, bailing out");
+        logger.severe("No HTTPServer running, bailing out");
         server.shutdown(false);
         System.exit(-1);
       }
@@ -139,8 +235,7 @@ public class RESTServer implements RESTConnection
       if (tries % 16 == 0)
         logger.info("Unable to connect to HTTPServer");
 
-      try {Thread.sleep(250);}
-      catch (Exception e) {logger.log(Level.SEVERE,e.getMessage(),e);}
+      listening(tries);
     }
 
     try
@@ -150,6 +245,8 @@ public class RESTServer implements RESTConnection
 
       reader.start();
       writer.start();
+
+      credits(credits);
     }
     catch (Exception e)
     {
@@ -160,15 +257,68 @@ public class RESTServer implements RESTConnection
   }
 
 
-  private boolean connect()
+  private boolean httpserver()
   {
     try
     {
-      SocketChannel rchannel = SocketChannel.open();
-      this.rchannel = new HTTPChannel(server,rchannel,true);
+      for (short id = 0; id < htsrvs; id++)
+        if (Cluster.isRunning(id)) return(true);
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.WARNING,e.getMessage(),e);
+    }
+
+    return(false);
+  }
 
-      SocketChannel wchannel = SocketChannel.open();
-      this.wchannel = new HTTPChannel(server,wchannel,true);
+
+  /**
+   * Wait for the HTTPServer to open its listener. With unix sockets the
+   * socket file being bound is the signal, with tcp there is nothing to
+   * watch and the retries back off instead.
+   */
+  private void listening(int tries)
+  {
+    long wait = Math.min(RETRY << Math.min(tries,5),MAXWAIT);
+
+    try
+    {
+      Path path = java.nio.file.Paths.get(RESTListener.path());
+
+      if (!unix || !Files.isDirectory(path.getParent()))
+      {
+        Thread.sleep(wait);
+        return;
+      }
+
+      try (WatchService watcher = FileSystems.getDefault().newWatchService())
+      {
+        path.getParent().register(watcher,StandardWatchEventKinds.ENTRY_CREATE);
+        WatchKey key = watcher.poll(wait,TimeUnit.MILLISECONDS);
+
+        if (key != null)
+          logger.fine("HTTPServer listener created");
+      }
+    }
+    catch (Exception e)
+    {
+      logger.log(Level.WARNING,e.getMessage(),e);
+    }
+  }
+
+
+  private boolean connect()
+  {
+    if (unix) return(local());
+
+    HTTPChannel rchannel = null;
+    HTTPChannel wchannel = null;
+
+    try
+    {
+      rchannel = new HTTPChannel(server,SocketChannel.open(),true);
+      wchannel = new HTTPChannel(server,SocketChannel.open(),true);
     }
     catch (Exception e)
     {
@@ -177,15 +327,15 @@ public class RESTServer implements RESTConnection
       System.exit(-1);
     }
 
-    if (!connect(this.rchannel))
+    if (!connect(rchannel))
       return(false);
 
     byte[] readsig = this.httpid;
     // Make sure HTTPServer has not switched
 
-    if (!connect(this.wchannel))
+    if (!connect(wchannel))
     {
-      try {this.rchannel.close();}
+      try {rchannel.close();}
       catch (Exception e) {;}
 
       return(false);
@@ -193,20 +343,120 @@ public class RESTServer implements RESTConnection
 
     if (!Arrays.equals(readsig,this.httpid))
     {
-      try {this.rchannel.close();}
+      try {rchannel.close();}
       catch (Exception e) {;}
 
-      try {this.wchannel.close();}
+      try {wchannel.close();}
       catch (Exception e) {;}
 
       return(false);
     }
 
+    this.rchannel = new RESTSocket(rchannel);
+    this.wchannel = new RESTSocket(wchannel);
+
     logger.info("Connected to HTTPServer");
     return(true);
   }
 
 
+  private boolean local()
+  {
+    SocketChannel rchannel = connect(RESTListener.path());
+    if (rchannel == null) return(false);
+
+    byte[] readsig = this.httpid;
+    // Make sure HTTPServer has not switched
+
+    SocketChannel wchannel = connect(RESTListener.path());
+
+    if (wchannel == null || !Arrays.equals(readsig,this.httpid))
+    {
+      try {rchannel.close();}
+      catch (Exception e) {;}
+
+      try {if (wchannel != null) wchannel.close();}
+      catch (Exception e) {;}
+
+      return(false);
+    }
+
+    if (!shm)
+    {
+      this.rchannel = new RESTSocket(rchannel);
+      this.wchannel = new RESTSocket(wchannel);
+    }
+    else
+    {
+      try
+      {
+        this.rchannel = new RESTSocket(rchannel,new RingBuffer(config,server.id(),true));
+        this.wchannel = new RESTSocket(wchannel,new RingBuffer(config,server.id(),false));
+      }
+      catch (Exception e)
+      {
+        logger.log(Level.SEVERE,e.getMessage(),e);
+        return(false);
+      }
+    }
+
+    logger.info("Connected to HTTPServer through "+RESTListener.path());
+    return(true);
+  }
+
+
+  private SocketChannel connect(String path)
+  {
+    SocketChannel channel = null;
+
+    try
+    {
+      channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+      channel.connect(UnixDomainSocketAddress.of(path));
+
+      ByteBuffer hello = ByteBuffer.allocate(RESTListener.HELLO);
+
+      hello.putShort(server.id());
+      hello.putLong(server.started());
+      hello.flip();
+
+      while(hello.hasRemaining())
+        channel.write(hello);
+
+      hello.clear();
+
+      while(hello.hasRemaining())
+      {
+        if (channel.read(hello) < 0)
+          throw new Exception("Missing reply from HTTPServer");
+      }
+
+      hello.flip();
+
+      short id = hello.getShort();
+      long started = hello.getLong();
+      byte[] signature = signature(id,started);
+      if (this.httpid == null) this.httpid = signature;
+
+      if (!Arrays.equals(signature,this.httpid))
+          logger.info("HTTPServer restarted or switched");
+
+      this.httpid = signature;
+      return(channel);
+    }
+    catch (Exception e)
+    {
+      try {if (channel != null) channel.close();}
+      catch (Exception c) {;}
+
+      boolean skip = e instanceof SocketException;
+      if (!skip) logger.log(Level.WARNING,e.getMessage(),e);
+
+      return(null);
+    }
+  }
+
+
   private boolean connect(HTTPChannel channel)
   {
     try
@@ -307,14 +557,14 @@ public class RESTServer implements RESTConnection
   @Override
   public InputStream reader() throws Exception
   {
-    return(rchannel.socket().getInputStream());
+    return(rchannel.reader());
   }
 
 
   @Override
-  public OutputStream writer() throws Exception
+  public GatheringByteChannel writer() throws Exception
   {
-    return(wchannel.socket().getOutputStream());
+    return(wchannel.writer());
   }
 
 
@@ -323,6 +573,28 @@ public class RESTServer implements RESTConnection
   {
     for(RESTComm http : calls)
     {
+      if (http.extend == RESTComm.CANCEL)
+      {
+        RESTWorker worker = running.get(http.id);
+        if (worker != null) worker.abort();
+        continue;
+      }
+
+      // The HTTPServer has passed a streamed chunk on to the client
+      if (http.extend == RESTComm.ACK)
+      {
+        RESTWorker worker = running.get(http.id);
+        if (worker != null) worker.ack();
+        continue;
+      }
+
+      // Everything sent before the drain is already running
+      if (http.extend == RESTComm.DRAIN)
+      {
+        drain();
+        continue;
+      }
+
       byte[] page = http.page();
 
       if (http.extend >= 0)
@@ -331,7 +603,10 @@ public class RESTServer implements RESTConnection
         http.add(page);
       }
 
-      workers.submit(new RESTWorker(this,workers,http));
+      RESTWorker worker = new RESTWorker(this,workers,http);
+
+      running.put(http.id,worker);
+      workers.submit(worker);
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package database.rest.servers.rest;
+
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import database.rest.cluster.RingBuffer;
+import database.rest.servers.http.HTTPChannel;
+import java.nio.channels.GatheringByteChannel;
+
+
+/**
+ *
+ * One direction of the link between the HTTPServer and a RESTServer.
+ * Either a loopback tcp connection, handshaked through the admin port,
+ * or a unix domain socket in the ipc directory, optionally handing over
+ * to a shared memory ring buffer once connected.
+ *
+ */
+class RESTSocket
+{
+  private final HTTPChannel http;
+  private final RingBuffer ring;
+  private final SocketChannel unix;
+
+
+  RESTSocket(HTTPChannel http)
+  {
+    this.http = http;
+    this.unix = null;
+    this.ring = null;
+  }
+
+
+  RESTSocket(SocketChannel unix)
+  {
+    this.http = null;
+    this.unix = unix;
+    this.ring = null;
+  }
+
+
+  RESTSocket(SocketChannel unix, RingBuffer ring)
+  {
+    this.http = null;
+    this.unix = unix;
+    this.ring = ring;
+  }
+
+
+  boolean connected()
+  {
+    if (http != null) return(http.connected());
+    if (ring != null) return(!ring.closed());
+    return(unix.isConnected());
+  }
+
+
+  InputStream reader() throws Exception
+  {
+    if (http != null) return(http.socket().getInputStream());
+    if (ring != null) return(ring.reader());
+    return(Channels.newInputStream(unix));
+  }
+
+
+  GatheringByteChannel writer() throws Exception
+  {
+    if (http != null) return(http.socket().getChannel());
+    if (ring != null) return(ring.writer());
+    return(unix);
+  }
+
+
+  void close() throws Exception
+  {
+    if (ring != null) ring.close();
+
+    if (http != null) http.close();
+    else              unix.close();
+  }
+}
\ No newline at end of file
@@ -21,7 +21,10 @@
 
 package database.rest.servers.rest;
 
+import java.io.IOException;
 import java.util.logging.Level;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
 import database.rest.servers.Server;
 import database.rest.config.Handlers;
@@ -29,15 +32,24 @@ import database.rest.pools.ThreadPool;
 import database.rest.handlers.RestHandler;
 import database.rest.servers.http.HTTPRequest;
 import database.rest.servers.http.HTTPResponse;
+import database.rest.servers.http.HTTPChunkedStream;
 
 
-public class RESTWorker implements Runnable
+public class RESTWorker implements Runnable, HTTPChunkedStream.Transport
 {
   private final Logger logger;
   private final RESTComm bridge;
   private final RESTServer rserver;
   private final ThreadPool workers;
 
+  private volatile boolean aborted = false;
+  private volatile boolean streamed = false;
+  private volatile HTTPRequest request = null;
+
+  // Streamed chunks not yet passed on to the client by the HTTPServer
+  private final Semaphore window = new Semaphore(WINDOW);
+  private final static int WINDOW = 16;
+
 
   public RESTWorker(RESTServer rserver, ThreadPool workers, RESTComm bridge)
   {
@@ -48,6 +60,55 @@ public class RESTWorker implements Runnable
   }
 
 
+  long id()
+  {
+    return(bridge.id());
+  }
+
+
+  void abort()
+  {
+    aborted = true;
+    HTTPRequest request = this.request;
+    if (request != null) request.abort();
+  }
+
+
+  void ack()
+  {
+    window.release();
+  }
+
+
+  @Override
+  public void transmit(byte[] data) throws IOException
+  {
+    try
+    {
+      while(!window.tryAcquire(250,TimeUnit.MILLISECONDS))
+        if (aborted) break;
+    }
+    catch (InterruptedException e)
+    {
+      throw new IOException(e.getMessage(),e);
+    }
+
+    if (aborted)
+      throw new IOException("Client closed connection");
+
+    streamed = true;
+    rserver.respond(new RESTComm(bridge.id(),RESTComm.STREAM,bridge.host(),data));
+  }
+
+
+  @Override
+  public void broken()
+  {
+    // An empty chunk tells the HTTPServer to drop the client connection
+    rserver.respond(new RESTComm(bridge.id(),RESTComm.STREAM,bridge.host(),new byte[0]));
+  }
+
+
   @Override
   public void run()
   {
@@ -58,11 +119,19 @@ public class RESTWorker implements Runnable
       String host = new String(bridge.host);
       HTTPRequest request = new HTTPRequest(srv,host,bridge.page());
 
+      this.request = request;
+      request.transport(this);
+      if (aborted) request.abort();
+
       Handlers handlers = rserver.config().getHTTP().handlers;
       RestHandler handler = handlers.getRESTHandler();
 
       HTTPResponse response = handler.handle(request);
-      byte[] data = response.page();
+
+      // A streamed response ends with an empty one
+      byte[] data = null;
+      if (response != null) data = response.page();
+      else if (streamed) data = new byte[0];
 
       if (data == null)
       {
@@ -85,5 +154,9 @@ public class RESTWorker implements Runnable
       RESTComm error = new RESTComm(bridge.id(),bridge.extend(),bridge.host(),data);
       rserver.respond(error);
     }
+    finally
+    {
+      rserver.done(this);
+    }
   }
 }
\ No newline at end of file
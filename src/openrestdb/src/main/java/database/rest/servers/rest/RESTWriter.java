@@ -21,16 +21,17 @@
 
 package database.rest.servers.rest;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.io.OutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.io.ByteArrayOutputStream;
+import java.nio.channels.GatheringByteChannel;
 
 
 class RESTWriter extends Thread
 {
   private final RESTConnection conn;
+  private boolean sending = false;
 
   private ArrayList<RESTComm> outgoing =
     new ArrayList<RESTComm>();
@@ -49,7 +50,20 @@ class RESTWriter extends Thread
     synchronized (this)
     {
       outgoing.add(call);
-      this.notify();
+      this.notifyAll();
+    }
+  }
+
+
+  /**
+   * Waits until everything queued so far has been written.
+   */
+  void flush() throws InterruptedException
+  {
+    synchronized(this)
+    {
+      while(sending || this.outgoing.size() > 0)
+        this.wait();
     }
   }
 
@@ -62,7 +76,7 @@ class RESTWriter extends Thread
 
     try
     {
-      OutputStream writer = conn.writer();
+      GatheringByteChannel writer = conn.writer();
 
       while(true)
       {
@@ -71,21 +85,32 @@ class RESTWriter extends Thread
           while(this.outgoing.size() == 0)
             this.wait();
 
+          sending = true;
           outgoing = this.outgoing;
           this.outgoing = new ArrayList<RESTComm>();
         }
 
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream(4192);
+        long bytes = 0;
+        int buffers = 0;
+
+        ByteBuffer[] data = new ByteBuffer[3*outgoing.size()];
 
         for(RESTComm entry : outgoing)
-          buffer.write(entry.bytes());
+        {
+          bytes += entry.length();
+          buffers = entry.buffers(data,buffers);
+        }
 
-        byte[] data = buffer.toByteArray();
+        logger.finest(conn.parent()+" sending "+bytes+" bytes");
 
-        logger.finest(conn.parent()+" sending "+data.length+" bytes");
+        while(bytes > 0)
+          bytes -= writer.write(data,0,buffers);
 
-        writer.write(data);
-        writer.flush();
+        synchronized(this)
+        {
+          sending = false;
+          this.notifyAll();
+        }
       }
     }
     catch (Exception e)
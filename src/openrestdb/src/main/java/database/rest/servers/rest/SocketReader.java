@@ -74,29 +74,47 @@ public class SocketReader
     byte[] data = new byte[size];
     int available = this.size - this.pos;
 
-    while(true)
+    if (available > size)
+      available = size;
+
+    if (available > 0)
     {
-      if (available > 0)
-      {
-        if (available > size - pos)
-          available = size - pos;
+      System.arraycopy(this.buffer,this.pos,data,0,available);
+
+      pos += available;
+      this.pos += available;
+    }
 
-        System.arraycopy(this.buffer,this.pos,data,pos,available);
+    // Large payloads are read directly into their final array
+    while(size - pos >= MAX)
+    {
+      int read = in.read(data,pos,size-pos);
 
-        pos += available;
-        this.pos += available;
-      }
+      if (read == -1)
+        throw new Exception("Socket closed");
 
-      if (pos == size)
-        break;
+      pos += read;
+      this.total += read;
+    }
 
+    while(pos < size)
+    {
       this.pos = 0;
       this.size = in.read(buffer);
-      if (size > 0) this.total += this.size;
-      available = this.size - this.pos;
 
       if (this.size == -1)
         throw new Exception("Socket closed");
+
+      this.total += this.size;
+      available = this.size;
+
+      if (available > size - pos)
+        available = size - pos;
+
+      System.arraycopy(this.buffer,0,data,pos,available);
+
+      pos += available;
+      this.pos += available;
     }
 
     return(data);
@@ -0,0 +1,64 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *
+ * Bookkeeping shared by the stand-alone harnesses. Failures are counted and
+ * the first few printed, payloads are reproducible from a seed, and the run
+ * ends with an exit code a build can check.
+ *
+ */
+public class Harness
+{
+  private static final AtomicInteger errors = new AtomicInteger(0);
+
+
+  public static void fail(String message)
+  {
+    if (errors.incrementAndGet() <= 10)
+      System.out.println(message);
+  }
+
+
+  public static byte[] data(int seed, int size)
+  {
+    byte[] data = new byte[size];
+
+    for (int i = 0; i < size; i++)
+      data[i] = (byte) (seed * 31 + i);
+
+    return(data);
+  }
+
+
+  public static void exit()
+  {
+    int errors = Harness.errors.get();
+    System.out.println(errors == 0 ? "Passed" : "Failed with "+errors+" error(s)");
+    System.exit(errors == 0 ? 0 : -1);
+  }
+}
\ No newline at end of file
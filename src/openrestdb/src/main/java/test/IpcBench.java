@@ -0,0 +1,172 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package test;
+
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.nio.channels.Channels;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SocketChannel;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import database.rest.servers.rest.SocketReader;
+
+
+/**
+ *
+ * Round trip latency of REST frames over a unix domain socket,
+ * compared to loopback tcp, for a few payload sizes.
+ * Usage: IpcBench [socket-file]
+ *
+ */
+public class IpcBench
+{
+  private final static int HEADER = 18;
+
+
+  public static void main(String[] args) throws Exception
+  {
+    String file = args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir")+"/ipcbench.sock";
+
+    Path path = Paths.get(file);
+    Files.deleteIfExists(path);
+
+    ServerSocketChannel userver = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    userver.bind(UnixDomainSocketAddress.of(path));
+
+    new Thread(() ->
+    {
+      try
+      {
+        SocketChannel channel = userver.accept();
+        echo(Channels.newInputStream(channel),Channels.newOutputStream(channel));
+      }
+      catch (Exception e) {;}
+    }).start();
+
+    SocketChannel uclient = SocketChannel.open(StandardProtocolFamily.UNIX);
+    uclient.connect(UnixDomainSocketAddress.of(path));
+
+    ServerSocket tserver = new ServerSocket(0);
+
+    new Thread(() ->
+    {
+      try
+      {
+        Socket socket = tserver.accept();
+        socket.setTcpNoDelay(true);
+        echo(socket.getInputStream(),socket.getOutputStream());
+      }
+      catch (Exception e) {;}
+    }).start();
+
+    Socket tclient = new Socket("localhost",tserver.getLocalPort());
+    tclient.setTcpNoDelay(true);
+
+    InputStream uin = Channels.newInputStream(uclient);
+    OutputStream uout = Channels.newOutputStream(uclient);
+
+    InputStream tin = tclient.getInputStream();
+    OutputStream tout = tclient.getOutputStream();
+
+    for(int size : new int[] {64,4096,65536})
+    {
+      int loops = size > 4096 ? 20000 : 100000;
+
+      // Warm up
+      run(uin,uout,size,loops/5);
+      run(tin,tout,size,loops/5);
+
+      long unix = run(uin,uout,size,loops);
+      long tcp = run(tin,tout,size,loops);
+
+      System.out.printf("size %6d  unix %6.1f us/rt  tcp %6.1f us/rt%n",size,unix/1e3/loops,tcp/1e3/loops);
+    }
+
+    Files.deleteIfExists(path);
+    System.exit(0);
+  }
+
+
+  private static long run(InputStream in, OutputStream out, int size, int loops) throws Exception
+  {
+    byte[] head = header(size);
+    byte[] body = new byte[size];
+    SocketReader reader = new SocketReader(in);
+
+    long time = System.nanoTime();
+
+    for (int i = 0; i < loops; i++)
+    {
+      out.write(head);
+      out.write(body);
+      out.flush();
+
+      reader.read(HEADER);
+      reader.read(size);
+    }
+
+    return(System.nanoTime() - time);
+  }
+
+
+  private static void echo(InputStream in, OutputStream out) throws Exception
+  {
+    SocketReader reader = new SocketReader(in);
+
+    while(true)
+    {
+      byte[] head = reader.read(HEADER);
+      byte[] body = reader.read(size(head));
+
+      out.write(head);
+      out.write(body);
+      out.flush();
+    }
+  }
+
+
+  // Same layout as RESTComm, the payload size is the last int
+  private static byte[] header(int size)
+  {
+    byte[] head = new byte[HEADER];
+
+    head[14] = (byte) (size >>> 24);
+    head[15] = (byte) (size >>> 16);
+    head[16] = (byte) (size >>> 8);
+    head[17] = (byte) size;
+
+    return(head);
+  }
+
+
+  private static int size(byte[] head)
+  {
+    return(((head[14] & 0xFF) << 24) | ((head[15] & 0xFF) << 16) | ((head[16] & 0xFF) << 8) | (head[17] & 0xFF));
+  }
+}
\ No newline at end of file
@@ -0,0 +1,173 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import database.rest.config.Paths;
+import database.rest.config.Config;
+import database.rest.cluster.MailBox;
+
+
+/**
+ *
+ * Exercises extend chains in a private mailbox: chains extended in place,
+ * reuse of released extends, running out of extends, and concurrent writers
+ * allocating and releasing chains of random length. Uses the topology from
+ * the installed configuration, and a mailbox id no server uses.
+ * Usage: MailBoxTest [threads] [loops]
+ *
+ */
+public class MailBoxTest
+{
+  private static int extnds;
+  private static int extsize;
+  private static final short ID = Short.MAX_VALUE;
+  private static final Logger logger = Logger.getLogger("internal");
+
+
+  public static void main(String[] args) throws Exception
+  {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int loops = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+    Config config = new Config(false);
+    extnds = config.getTopology().extnds;
+    extsize = config.getTopology().extsize;
+
+    // Running out of extends is expected here
+    logger.setLevel(Level.SEVERE);
+
+    MailBox mailbox = new MailBox(config,ID);
+    mailbox.reset();
+
+    System.out.println("Testing, extends: "+extnds+" extsize: "+extsize+" threads: "+threads+" loops: "+loops);
+
+    chains(mailbox);
+    exhaust(mailbox);
+
+    Thread[] workers = new Thread[threads];
+    long time = System.currentTimeMillis();
+
+    for (int i = 0; i < workers.length; i++)
+    {
+      long seed = i;
+      workers[i] = new Thread(() -> random(mailbox,seed,loops));
+      workers[i].start();
+    }
+
+    for (int i = 0; i < workers.length; i++)
+      workers[i].join();
+
+    time = System.currentTimeMillis() - time;
+
+    if (mailbox.used() != 0)
+      Harness.fail(mailbox.used()+" extends still in use");
+
+    new File(Paths.ipcdir + File.separator + "ipc7fff.mbx").delete();
+
+    System.out.println(threads*loops+" chains in "+time+" ms");
+    Harness.exit();
+  }
+
+
+  private static void chains(MailBox mailbox)
+  {
+    byte[] small = Harness.data(1,16);
+    byte[] large = Harness.data(2,3*extsize+7);
+
+    int extend = mailbox.write(1L,small);
+    if (extend < 0) Harness.fail("Unable to write a single extend");
+
+    check("single extend",mailbox,extend,small);
+    if (mailbox.used() != 1) Harness.fail("Single extend uses "+mailbox.used());
+
+    // The response extends the request chain
+    if (!mailbox.write(extend,large)) Harness.fail("Unable to extend the chain");
+
+    check("extended chain",mailbox,extend,large);
+    if (mailbox.used() != 4) Harness.fail("Extended chain uses "+mailbox.used()+", expected 4");
+
+    // A shorter payload reuses the head of the chain
+    if (!mailbox.write(extend,small)) Harness.fail("Unable to rewrite the chain");
+    check("rewritten chain",mailbox,extend,small);
+
+    mailbox.clear(extend);
+    if (mailbox.used() != 0) Harness.fail("Cleared chain left "+mailbox.used()+" extends");
+  }
+
+
+  private static void exhaust(MailBox mailbox)
+  {
+    byte[] huge = Harness.data(3,(extnds+1)*extsize);
+
+    // Too large for the mailbox, the partial chain must be released
+    if (mailbox.write(2L,huge) >= 0) Harness.fail("Payload larger than the mailbox was accepted");
+    if (mailbox.used() != 0) Harness.fail("Failed write left "+mailbox.used()+" extends");
+
+    byte[] full = Harness.data(4,extnds*extsize);
+    int extend = mailbox.write(3L,full);
+
+    if (extend < 0) Harness.fail("Unable to use the whole mailbox");
+    else check("full mailbox",mailbox,extend,full);
+
+    if (mailbox.write(4L,Harness.data(5,1)) >= 0) Harness.fail("Write to a full mailbox was accepted");
+
+    if (extend >= 0) mailbox.clear(extend);
+    if (mailbox.used() != 0) Harness.fail("Cleared mailbox left "+mailbox.used()+" extends");
+  }
+
+
+  private static void random(MailBox mailbox, long seed, int loops)
+  {
+    Random random = new Random(seed);
+
+    for (int i = 0; i < loops; i++)
+    {
+      byte[] request = Harness.data(i,1+random.nextInt(extsize*2));
+      byte[] response = Harness.data(i+1,1+random.nextInt(extsize*4));
+
+      int extend = mailbox.write(seed*loops+i,request);
+
+      // Other threads may hold all extends for a moment
+      if (extend < 0) continue;
+
+      check("request",mailbox,extend,request);
+
+      if (mailbox.write(extend,response))
+        check("response",mailbox,extend,response);
+
+      mailbox.clear(extend);
+    }
+  }
+
+
+  private static void check(String what, MailBox mailbox, int extend, byte[] data)
+  {
+    if (!Arrays.equals(data,mailbox.read(extend,data.length)))
+      Harness.fail("Wrong data read back from "+what+" at extend "+extend+", "+data.length+" bytes");
+  }
+}
\ No newline at end of file
@@ -0,0 +1,134 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package test;
+
+import java.util.HashMap;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.sql.PreparedStatement;
+import database.rest.database.Pool;
+import database.rest.database.Database;
+import database.rest.database.BindValue;
+import database.rest.database.PoolScaler;
+import database.rest.database.BindValueDef;
+import database.rest.database.CircuitBreaker;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *
+ * Hammers the handoff between releasing and waiting threads in a pool
+ * of fake connections, more threads than connections. Each connection
+ * must be held by one thread at a time, and all must be back when done.
+ * Usage: PoolTest [connections] [threads] [loops]
+ *
+ */
+public class PoolTest
+{
+  public static void main(String[] args) throws Exception
+  {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+    int loops = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+    Pool pool = new Pool(false,null,"test","test",0,size,60,10,0,1,0,new PoolScaler(false,0.7),new CircuitBreaker(5,10));
+
+    for (int i = 0; i < size; i++)
+      pool.add(new Connection());
+
+    System.out.println("Testing, connections: "+size+" threads: "+threads+" loops: "+loops);
+
+    Thread[] workers = new Thread[threads];
+    long time = System.currentTimeMillis();
+
+    for (int i = 0; i < workers.length; i++)
+    {
+      workers[i] = new Thread(() -> borrow(pool,loops));
+      workers[i].start();
+    }
+
+    for (int i = 0; i < workers.length; i++)
+      workers[i].join();
+
+    time = System.currentTimeMillis() - time;
+
+    if (pool.size() != size) Harness.fail("Pool size "+pool.size()+", expected "+size);
+    if (pool.free() != size) Harness.fail("Free connections "+pool.free()+", expected "+size);
+    if (pool.waiting() != 0) Harness.fail("Waiters left in line "+pool.waiting());
+
+    System.out.println(threads*loops+" borrows in "+time+" ms, waits in us "+pool.waits());
+    Harness.exit();
+  }
+
+
+  private static void borrow(Pool pool, int loops)
+  {
+    for (int i = 0; i < loops; i++)
+    {
+      try
+      {
+        Connection conn = (Connection) pool.getConnection();
+
+        if (conn.users.incrementAndGet() != 1)
+          Harness.fail("Connection "+conn.id()+" handed to two threads");
+
+        if (i % 8 == 0) Thread.yield();
+
+        conn.users.decrementAndGet();
+        pool.release(conn);
+      }
+      catch (Exception e)
+      {
+        Harness.fail(e.getMessage());
+      }
+    }
+  }
+
+
+  private static class Connection extends Database
+  {
+    private final AtomicInteger users = new AtomicInteger(0);
+
+    @Override
+    public void releaseProxyUser() throws Exception
+    {
+    }
+
+    @Override
+    public void setProxyUser(String username) throws Exception
+    {
+    }
+
+    @Override
+    public ResultSet executeUpdateWithReturnValues(PreparedStatement stmt, String dateform) throws Exception
+    {
+      throw new Exception("Not supported");
+    }
+
+    @Override
+    public ReturnValueHandle prepareWithReturnValues(String sql, ArrayList<BindValue> bindvalues, HashMap<String,BindValueDef> alltypes, String dateform) throws Exception
+    {
+      throw new Exception("Not supported");
+    }
+  }
+}
\ No newline at end of file
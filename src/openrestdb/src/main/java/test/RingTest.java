@@ -0,0 +1,178 @@
+/*
+  MIT License
+
+  Copyright © 2023 Alex Høffner
+
+  Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+  and associated documentation files (the “Software”), to deal in the Software without
+  restriction, including without limitation the rights to use, copy, modify, merge, publish,
+  distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the
+  Software is furnished to do so, subject to the following conditions:
+
+  The above copyright notice and this permission notice shall be included in all copies or
+  substantial portions of the Software.
+
+  THE SOFTWARE IS PROVIDED “AS IS”, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+  BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+  DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+
+package test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.DataInputStream;
+import database.rest.config.Paths;
+import database.rest.config.Config;
+import database.rest.cluster.RingBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+
+/**
+ *
+ * Streams frames of random size through a private ring buffer, from one
+ * thread to another, so that both small frames and frames larger than the
+ * ring wrap at every possible position. Each frame is checked for order and
+ * content. Finally a reader without a peer must give up after the handshake
+ * timeout. Uses the topology from the installed configuration.
+ * Usage: RingTest [frames]
+ *
+ */
+public class RingTest
+{
+  private static final short ID = Short.MAX_VALUE;
+
+
+  public static void main(String[] args) throws Exception
+  {
+    int frames = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+    Config config = new Config(false);
+    int capacity = Integer.highestOneBit(config.getTopology().ringsize);
+
+    RingBuffer ring = new RingBuffer(config,ID,true);
+    ring.reset();
+
+    System.out.println("Testing, ring: "+capacity+" bytes, frames: "+frames);
+
+    InputStream in = ring.reader();
+    GatheringByteChannel out = ring.writer();
+
+    Thread producer = new Thread(() -> produce(out,capacity,frames));
+
+    long time = System.currentTimeMillis();
+
+    producer.start();
+    long bytes = consume(in,capacity,frames);
+    producer.join();
+
+    time = System.currentTimeMillis() - time;
+    System.out.println(frames+" frames, "+bytes/(1024*1024)+" MB in "+time+" ms");
+
+    handshake(config);
+
+    new File(Paths.ipcdir + File.separator + "ipc7fff.req").delete();
+    new File(Paths.ipcdir + File.separator + "ipc7fff.rsp").delete();
+
+    Harness.exit();
+  }
+
+
+  private static void produce(GatheringByteChannel out, int capacity, int frames)
+  {
+    Random random = new Random(1);
+
+    try
+    {
+      for (int i = 0; i < frames; i++)
+      {
+        byte[] data = Harness.data(i,size(random,capacity,i));
+
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(i).putInt(data.length).flip();
+
+        // Header and payload are written together, like RESTWriter does
+        out.write(new ByteBuffer[] {header,ByteBuffer.wrap(data)});
+      }
+    }
+    catch (Exception e)
+    {
+      Harness.fail("Producer failed: "+e.getMessage());
+    }
+  }
+
+
+  private static long consume(InputStream in, int capacity, int frames)
+  {
+    long bytes = 0;
+    Random random = new Random(1);
+    DataInputStream reader = new DataInputStream(in);
+
+    try
+    {
+      for (int i = 0; i < frames; i++)
+      {
+        int seq = reader.readInt();
+        int size = reader.readInt();
+
+        int expected = size(random,capacity,i);
+
+        if (seq != i || size != expected)
+        {
+          Harness.fail("Frame "+i+" arrived as "+seq+" with "+size+" bytes, expected "+expected);
+          return(bytes);
+        }
+
+        byte[] data = new byte[size];
+        reader.readFully(data);
+
+        if (!Arrays.equals(data,Harness.data(i,size)))
+          Harness.fail("Frame "+i+" of "+size+" bytes is corrupt");
+
+        bytes += size + 8;
+      }
+    }
+    catch (Exception e)
+    {
+      Harness.fail("Consumer failed: "+e.getMessage());
+    }
+
+    return(bytes);
+  }
+
+
+  private static void handshake(Config config) throws Exception
+  {
+    RingBuffer ring = new RingBuffer(config,ID,false);
+    ring.reset();
+
+    long time = System.currentTimeMillis();
+
+    try
+    {
+      // Nobody attaches as producer
+      ring.reader().read();
+      Harness.fail("Read without a peer returned");
+    }
+    catch (IOException e)
+    {
+      time = System.currentTimeMillis() - time;
+      System.out.println("Unattached peer detected after "+time+" ms: "+e.getMessage());
+    }
+  }
+
+
+  private static int size(Random random, int capacity, int frame)
+  {
+    // Mostly small frames, now and then one larger than the ring
+    if (frame % 100 == 99) return(capacity + random.nextInt(capacity));
+    return(random.nextInt(4096));
+  }
+}
\ No newline at end of file